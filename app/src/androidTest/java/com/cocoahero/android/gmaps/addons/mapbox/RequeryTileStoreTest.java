@@ -0,0 +1,142 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a deduplicated MBTiles database whose tile_ids are hashes stored as text, as written by mb-util and tippecanoe.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+@RunWith(AndroidJUnit4.class)
+public class RequeryTileStoreTest {
+
+    private static final String DATABASE = "text-tile-ids.mbtiles";
+
+    private static final long COPY_TIMEOUT = 10000L;
+
+    private static final String[] HASHES = { "5d41402abc4b2a76b9719d911017c592", "7d793037a0760186574b0282f2f435e7" };
+
+    private static File sFile = null;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        sFile = new File(context.getCacheDir(), DATABASE);
+        if (sFile.exists()) {
+            Assert.assertTrue(sFile.delete());
+        }
+        try (SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(sFile, null)) {
+            database.execSQL("CREATE TABLE metadata (name TEXT, value TEXT)");
+            database.execSQL("CREATE TABLE map (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_id TEXT)");
+            database.execSQL("CREATE UNIQUE INDEX map_index ON map (zoom_level, tile_column, tile_row)");
+            database.execSQL("CREATE TABLE images (tile_data BLOB, tile_id TEXT)");
+            database.execSQL("CREATE VIEW tiles AS SELECT map.zoom_level AS zoom_level, map.tile_column AS tile_column,"
+                    + " map.tile_row AS tile_row, images.tile_data AS tile_data FROM map JOIN images ON images.tile_id = map.tile_id");
+            metadata(database, "minzoom", "1");
+            metadata(database, "maxzoom", "1");
+            for (String hash : HASHES) {
+                ContentValues values = new ContentValues();
+                values.put("tile_id", hash);
+                values.put("tile_data", hash.getBytes(StandardCharsets.US_ASCII));
+                database.insert("images", null, values);
+            }
+            // The two tiles in the north share the first image, the two in the south the second
+            for (int x = 0; x < 2; x++) {
+                for (int row = 0; row < 2; row++) {
+                    ContentValues values = new ContentValues();
+                    values.put("zoom_level", 1);
+                    values.put("tile_column", x);
+                    values.put("tile_row", row);
+                    values.put("tile_id", HASHES[1 - row]);
+                    database.insert("map", null, values);
+                }
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Assert.assertTrue(sFile.delete());
+    }
+
+    /**
+     * Test of read method, of class RequeryTileStore.
+     */
+    @Test
+    public void testRead() {
+        try (RequeryTileStore store = new RequeryTileStore(sFile.getPath(), 1)) {
+            for (int x = 0; x < 2; x++) {
+                for (int y = 0; y < 2; y++) {
+                    Assert.assertEquals(HASHES[y], string(store.read(1, x, y)));
+                }
+            }
+            Assert.assertNull(store.read(2, 0, 0));
+        }
+    }
+
+    /**
+     * Test of readAll method, of class RequeryTileStore.
+     */
+    @Test
+    public void testReadAll() {
+        long[] keys = { TileCache.key(0, 0, 1), TileCache.key(0, 1, 1), TileCache.key(1, 0, 1), TileCache.key(1, 1, 1) };
+        Map<Long, String> tiles = new HashMap<>();
+        try (RequeryTileStore store = new RequeryTileStore(sFile.getPath(), 1)) {
+            store.readAll(keys, (key, data) -> tiles.put(key, string(data)));
+        }
+        Assert.assertEquals(keys.length, tiles.size());
+        for (long key : keys) {
+            Assert.assertEquals(HASHES[TileCache.y(key)], tiles.get(key));
+        }
+    }
+
+    /**
+     * Test of reading from the memory backed copy, of class RequeryTileStore.
+     */
+    @Test
+    public void testCopyToMemory() throws InterruptedException {
+        try (RequeryTileStore store = new RequeryTileStore(null, sFile.getPath())) {
+            long deadline = SystemClock.elapsedRealtime() + COPY_TIMEOUT;
+            while (!store.isInMemory() && (SystemClock.elapsedRealtime() < deadline)) {
+                Thread.sleep(10L);
+            }
+            Assert.assertTrue(store.isInMemory());
+            for (int x = 0; x < 2; x++) {
+                for (int y = 0; y < 2; y++) {
+                    Assert.assertEquals(HASHES[y], string(store.read(1, x, y)));
+                }
+            }
+            Assert.assertEquals("1", store.getMetadata("maxzoom"));
+        }
+    }
+
+    private static void metadata(SQLiteDatabase database, String name, String value) {
+        ContentValues values = new ContentValues();
+        values.put("name", name);
+        values.put("value", value);
+        database.insert("metadata", null, values);
+    }
+
+    private static String string(byte[] data) {
+        return (data != null) ? new String(data, StandardCharsets.US_ASCII) : null;
+    }
+}
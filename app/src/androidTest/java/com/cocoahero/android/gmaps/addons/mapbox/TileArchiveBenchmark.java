@@ -0,0 +1,117 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import io.github.getsixtyfour.openpyn.LatencySummary;
+
+/**
+ * Compares the lookup latency and the heap retained by {@link TileArchiveProvider} and {@link MapBoxOfflineTileProvider} over the
+ * same tiles, results are written to logcat with the tag TileArchiveBenchmark.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TileArchiveBenchmark {
+
+    private static final String TAG = "TileArchiveBenchmark";
+
+    private static final String ARCHIVE = "world.tiles";
+
+    private static final String PATH = "file:world.mbtiles?vfs=ndk-asset&immutable=1&mode=ro";
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void benchmarkArchive() throws IOException {
+        long before = usedMemory();
+        try (AssetFileDescriptor descriptor = InstrumentationRegistry.getInstrumentation().getTargetContext().getAssets().openFd(ARCHIVE);
+             TileArchiveProvider provider = new TileArchiveProvider(descriptor)) {
+            long[] samples = measure(provider, (int) provider.getMinimumZoom(), (int) provider.getMaximumZoom());
+            report("archive", samples, usedMemory() - before);
+        }
+    }
+
+    @Test
+    public void benchmarkSQLite() {
+        long before = usedMemory();
+        try (MapBoxOfflineTileProvider provider = new MapBoxOfflineTileProvider(PATH, 1)) {
+            long[] samples = measure(provider, (int) provider.getMinimumZoom(), (int) provider.getMaximumZoom());
+            report("sqlite", samples, usedMemory() - before);
+        }
+    }
+
+    @Test
+    public void compareTiles() throws IOException {
+        try (AssetFileDescriptor descriptor = InstrumentationRegistry.getInstrumentation().getTargetContext().getAssets().openFd(ARCHIVE);
+             TileArchiveProvider archive = new TileArchiveProvider(descriptor);
+             MapBoxOfflineTileProvider sqlite = new MapBoxOfflineTileProvider(PATH, 1)) {
+            for (int zoom = (int) sqlite.getMinimumZoom(); zoom <= (int) sqlite.getMaximumZoom(); zoom++) {
+                for (int x = 0; x < (1 << zoom); x++) {
+                    for (int y = 0; y < (1 << zoom); y++) {
+                        Tile expected = sqlite.getTile(x, y, zoom);
+                        Tile actual = archive.getTile(x, y, zoom);
+                        Assert.assertArrayEquals(expected.data, actual.data);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long[] measure(TileProvider provider, int minZoom, int maxZoom) {
+        int count = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            count += 1 << (zoom << 1);
+        }
+        long[] samples = new long[count * ROUNDS];
+        int i = 0;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+                for (int x = 0; x < (1 << zoom); x++) {
+                    for (int y = 0; y < (1 << zoom); y++) {
+                        long start = System.nanoTime();
+                        Assert.assertNotNull(provider.getTile(x, y, zoom));
+                        if (round >= 0) {
+                            samples[i++] = System.nanoTime() - start;
+                        }
+                    }
+                }
+            }
+        }
+        return samples;
+    }
+
+    private static void report(String name, long[] samples, long heap) {
+        LatencySummary summary = new LatencySummary(samples);
+        Log.i(TAG, String.format(Locale.ROOT, "%s: %s over %d lookups, %d KiB heap retained", name, summary, summary.getCount(),
+                heap / 1024L));
+    }
+
+    @SuppressWarnings("CallToSystemGC")
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
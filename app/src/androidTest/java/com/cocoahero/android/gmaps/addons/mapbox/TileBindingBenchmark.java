@@ -0,0 +1,430 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.almworks.sqlite4java.SQLite;
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteStatement;
+import com.google.android.gms.maps.model.Tile;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+import io.github.getsixtyfour.openpyn.LatencySummary;
+
+/**
+ * Runs the same tile fetch workloads against each SQLite binding in the tree and the production path through
+ * {@link MapBoxOfflineTileProvider}, results are written to logcat with the tag TileBindingBenchmark.
+ * <p>
+ * The workloads are a sequential sweep over every zoom level and a seeded random walk of a viewport, each measured cold, on the
+ * first pass through a newly opened connection, and warm, after warm up passes on the same connection. For each run the tiles/s,
+ * the p50 and p99 latency and the allocations per tile are reported. A copy of the bundled world.mbtiles is read by every binding,
+ * as only the requery binding has the ndk-asset VFS. Every binding reads through one prepared statement per connection, with the
+ * keys bound as integers, so the bindings differ only in their own overhead.
+ * <p>
+ * The sqliteX and sqlite4java native libraries are excluded from the APK by packagingOptions unless the app is built with
+ * -PbenchmarkBindings, their tests are skipped without them.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TileBindingBenchmark {
+
+    private static final String TAG = "TileBindingBenchmark";
+
+    private static final String ASSET = "world.mbtiles";
+
+    private static final String SQL = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 10;
+
+    private static final int WALK_STEPS = 512;
+
+    private static final int VIEWPORT = 4;
+
+    private static final long SEED = 0x5EEDL;
+
+    private static String sPath;
+
+    private static int[][] sSweep;
+
+    private static int[][] sWalk;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File file = new File(context.getCacheDir(), ASSET);
+        try (InputStream in = context.getAssets().open(ASSET); OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+        sPath = file.getPath();
+        try (MapBoxOfflineTileProvider provider = new MapBoxOfflineTileProvider(sPath, 1)) {
+            int minZoom = (int) provider.getMinimumZoom();
+            int maxZoom = (int) provider.getMaximumZoom();
+            sSweep = sweep(minZoom, maxZoom);
+            sWalk = walk(minZoom, maxZoom);
+        }
+    }
+
+    @Test
+    public void benchmarkFramework() throws IOException {
+        run("framework", () -> new FrameworkBinding(sPath));
+    }
+
+    @Test
+    public void benchmarkProvider() throws IOException {
+        run("provider", () -> new ProviderBinding(sPath));
+    }
+
+    @Test
+    public void benchmarkRequery() throws IOException {
+        run("requery", () -> new RequeryBinding(sPath));
+    }
+
+    @Test
+    public void benchmarkSQLite4Java() throws IOException {
+        try {
+            SQLite.loadLibrary();
+        } catch (SQLiteException e) {
+            Assume.assumeNoException(e);
+        }
+        run("sqlite4java", () -> new SQLite4JavaBinding(sPath));
+    }
+
+    @Test
+    public void benchmarkSQLiteX() throws IOException {
+        try {
+            System.loadLibrary("sqliteX");
+        } catch (UnsatisfiedLinkError e) {
+            Assume.assumeNoException(e);
+        }
+        run("sqliteX", () -> new SQLiteXBinding(sPath));
+    }
+
+    private static void run(String name, BindingFactory factory) throws IOException {
+        measure(name, "sweep", factory, sSweep);
+        measure(name, "walk", factory, sWalk);
+    }
+
+    private static void measure(String name, String workload, BindingFactory factory, int[][] tiles) throws IOException {
+        long[] samples = new long[tiles.length];
+        try (Binding binding = factory.open()) {
+            long allocations = pass(binding, tiles, samples);
+            report(name, workload + " cold", samples, allocations);
+        }
+        samples = new long[tiles.length * ROUNDS];
+        try (Binding binding = factory.open()) {
+            long[] warmup = new long[tiles.length];
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                pass(binding, tiles, warmup);
+            }
+            long allocations = 0L;
+            long[] round = new long[tiles.length];
+            for (int i = 0; i < ROUNDS; i++) {
+                allocations += pass(binding, tiles, round);
+                System.arraycopy(round, 0, samples, i * tiles.length, tiles.length);
+            }
+            report(name, workload + " warm", samples, allocations);
+        }
+    }
+
+    /**
+     * @return the number of objects allocated by this thread during the pass
+     */
+    @SuppressWarnings("deprecation")
+    private static long pass(Binding binding, int[][] tiles, long[] samples) {
+        int found = 0;
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < tiles.length; i++) {
+            int[] tile = tiles[i];
+            long start = System.nanoTime();
+            byte[] data = binding.read(tile[0], tile[1], tile[2]);
+            samples[i] = System.nanoTime() - start;
+            if (data != null) {
+                found++;
+            }
+        }
+        long allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        Assert.assertTrue(found > 0);
+        return allocations;
+    }
+
+    private static void report(String name, String workload, long[] samples, long allocations) {
+        LatencySummary summary = new LatencySummary(samples);
+        Log.i(TAG, String.format(Locale.ROOT, "%s %s: %.0f tiles/s, p50 %d ns, p99 %d ns, %.1f allocations/tile over %d tiles", name,
+                workload, summary.getRate(), summary.getP50(), summary.getP99(), (double) allocations / summary.getCount(),
+                summary.getCount()));
+    }
+
+    /**
+     * @return every tile from the minimum to the maximum zoom level, in row order
+     */
+    private static int[][] sweep(int minZoom, int maxZoom) {
+        int count = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            count += 1 << (zoom << 1);
+        }
+        int[][] tiles = new int[count][];
+        int i = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            int size = 1 << zoom;
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    tiles[i++] = new int[]{ x, y, zoom };
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * @return the tiles of a viewport that pans one tile or zooms one level at each step, the same for every run
+     */
+    @SuppressWarnings("MagicNumber")
+    private static int[][] walk(int minZoom, int maxZoom) {
+        Random random = new Random(SEED);
+        int[][] tiles = new int[WALK_STEPS * VIEWPORT * VIEWPORT][];
+        int zoom = minZoom;
+        int x = 0;
+        int y = 0;
+        int i = 0;
+        for (int step = 0; step < WALK_STEPS; step++) {
+            int move = random.nextInt(6);
+            if ((move == 4) && (zoom < maxZoom)) {
+                zoom++;
+                x <<= 1;
+                y <<= 1;
+            } else if ((move == 5) && (zoom > minZoom)) {
+                zoom--;
+                x >>= 1;
+                y >>= 1;
+            } else {
+                x += (move == 0) ? 1 : ((move == 1) ? -1 : 0);
+                y += (move == 2) ? 1 : ((move == 3) ? -1 : 0);
+            }
+            int size = 1 << zoom;
+            for (int dx = 0; dx < VIEWPORT; dx++) {
+                for (int dy = 0; dy < VIEWPORT; dy++) {
+                    // Wrap around the antimeridian and the poles so the viewport stays on the map
+                    tiles[i++] = new int[]{ wrap(x + dx, size), wrap(y + dy, size), zoom };
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static int wrap(int value, int size) {
+        return ((value % size) + size) % size;
+    }
+
+    private static int row(int y, int zoom) {
+        return (1 << zoom) - 1 - y;
+    }
+
+    private static byte[] blob(Cursor cursor) {
+        return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+    }
+
+    private interface Binding extends Closeable {
+
+        /**
+         * @return the tile data, or null if there is no tile
+         */
+        byte[] read(int x, int y, int zoom);
+    }
+
+    private interface BindingFactory {
+
+        Binding open();
+    }
+
+    private static final class FrameworkBinding implements Binding {
+
+        private final android.database.sqlite.SQLiteDatabase mDatabase;
+
+        private final android.database.sqlite.SQLiteCursor mCursor;
+
+        private android.database.sqlite.SQLiteQuery mQuery;
+
+        FrameworkBinding(String path) {
+            mDatabase = android.database.sqlite.SQLiteDatabase.openDatabase(path, null,
+                    android.database.sqlite.SQLiteDatabase.OPEN_READONLY);
+            // The constructor of SQLiteQuery is hidden, the prepared query is handed to the cursor factory instead
+            mCursor = (android.database.sqlite.SQLiteCursor) mDatabase.rawQueryWithFactory((database, driver, editTable, query) -> {
+                mQuery = query;
+                return new android.database.sqlite.SQLiteCursor(driver, editTable, query);
+            }, SQL, new String[]{ "0", "0", "0" }, null);
+        }
+
+        @Override
+        public void close() {
+            mCursor.close();
+            mDatabase.close();
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public byte[] read(int x, int y, int zoom) {
+            mQuery.bindLong(1, zoom);
+            mQuery.bindLong(2, x);
+            mQuery.bindLong(3, row(y, zoom));
+            mCursor.requery();
+            return blob(mCursor);
+        }
+    }
+
+    private static final class ProviderBinding implements Binding {
+
+        private final MapBoxOfflineTileProvider mProvider;
+
+        ProviderBinding(String path) {
+            mProvider = new MapBoxOfflineTileProvider(path, 1);
+        }
+
+        @Override
+        public void close() {
+            mProvider.close();
+        }
+
+        @Override
+        public byte[] read(int x, int y, int zoom) {
+            Tile tile = mProvider.getTile(x, y, zoom);
+            return tile.data;
+        }
+    }
+
+    private static final class RequeryBinding implements Binding {
+
+        private final io.requery.android.database.sqlite.SQLiteDatabase mDatabase;
+
+        private final io.requery.android.database.sqlite.SQLiteQuery mQuery;
+
+        private final io.requery.android.database.sqlite.SQLiteCursor mCursor;
+
+        RequeryBinding(String path) {
+            mDatabase = io.requery.android.database.sqlite.SQLiteDatabase.openDatabase(path, null,
+                    io.requery.android.database.sqlite.SQLiteDatabase.OPEN_READONLY);
+            mQuery = new io.requery.android.database.sqlite.SQLiteQuery(mDatabase, SQL, null, null);
+            mCursor = new io.requery.android.database.sqlite.SQLiteCursor(
+                    new io.requery.android.database.sqlite.SQLiteDirectCursorDriver(null, null, null, null), null, mQuery);
+        }
+
+        @Override
+        public void close() {
+            mCursor.close();
+            mDatabase.close();
+        }
+
+        @Override
+        public byte[] read(int x, int y, int zoom) {
+            mQuery.bindLong(1, zoom);
+            mQuery.bindLong(2, x);
+            mQuery.bindLong(3, row(y, zoom));
+            mCursor.requery();
+            return blob(mCursor);
+        }
+    }
+
+    private static final class SQLite4JavaBinding implements Binding {
+
+        private final SQLiteConnection mConnection;
+
+        private final SQLiteStatement mStatement;
+
+        SQLite4JavaBinding(String path) {
+            mConnection = new SQLiteConnection(new File(path));
+            try {
+                mConnection.openReadonly();
+                mStatement = mConnection.prepare(SQL, true);
+            } catch (SQLiteException e) {
+                mConnection.dispose();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            mStatement.dispose();
+            mConnection.dispose();
+        }
+
+        @Override
+        public byte[] read(int x, int y, int zoom) {
+            try {
+                mStatement.bind(1, zoom).bind(2, x).bind(3, row(y, zoom));
+                return mStatement.step() ? mStatement.columnBlob(0) : null;
+            } catch (SQLiteException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                try {
+                    mStatement.reset(true);
+                } catch (SQLiteException ignored) {
+                }
+            }
+        }
+    }
+
+    private static final class SQLiteXBinding implements Binding {
+
+        private final org.sqlite.database.sqlite.SQLiteDatabase mDatabase;
+
+        private final org.sqlite.database.sqlite.SQLiteQuery mQuery;
+
+        private final org.sqlite.database.sqlite.SQLiteCursor mCursor;
+
+        SQLiteXBinding(String path) {
+            mDatabase = org.sqlite.database.sqlite.SQLiteDatabase.openDatabase(path, null,
+                    org.sqlite.database.sqlite.SQLiteDatabase.OPEN_READONLY);
+            mQuery = new org.sqlite.database.sqlite.SQLiteQuery(mDatabase, SQL, null);
+            mCursor = new org.sqlite.database.sqlite.SQLiteCursor(
+                    new org.sqlite.database.sqlite.SQLiteDirectCursorDriver(mDatabase, SQL, null, null), null, mQuery);
+        }
+
+        @Override
+        public void close() {
+            mCursor.close();
+            mDatabase.close();
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public byte[] read(int x, int y, int zoom) {
+            mQuery.bindLong(1, zoom);
+            mQuery.bindLong(2, x);
+            mQuery.bindLong(3, row(y, zoom));
+            mCursor.requery();
+            return blob(mCursor);
+        }
+    }
+}
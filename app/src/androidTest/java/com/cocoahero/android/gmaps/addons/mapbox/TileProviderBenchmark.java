@@ -0,0 +1,107 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.google.android.gms.maps.model.TileProvider;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures tile throughput of {@link MapBoxOfflineTileProvider} with 1, 2, 4 and 8 reader threads against the bundled
+ * world.mbtiles, results are written to logcat with the tag TileProviderBenchmark.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TileProviderBenchmark {
+
+    private static final String TAG = "TileProviderBenchmark";
+
+    private static final String PATH = "file:world.mbtiles?vfs=ndk-asset&immutable=1&mode=ro";
+
+    private static final int MAX_ZOOM = 5;
+
+    private static final int ROUNDS = 10;
+
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    @Test
+    public void benchmarkThreads() throws InterruptedException {
+        for (int threads : THREADS) {
+            try (MapBoxOfflineTileProvider provider = new MapBoxOfflineTileProvider(PATH, threads)) {
+                int[][] tiles = tiles(provider);
+                // Warm up the page cache and the JIT before measuring
+                measure(provider, tiles, threads, 1);
+                long nanos = measure(provider, tiles, threads, ROUNDS);
+                long count = (long) tiles.length * ROUNDS;
+                Log.i(TAG, String.format(Locale.ROOT, "%d threads: %.0f tiles/s over %d tiles", threads, (count * 1.0e9) / nanos, count));
+            }
+        }
+    }
+
+    @SuppressWarnings("NestedAssignment")
+    private static long measure(TileProvider provider, int[][] tiles, int threads, int rounds) throws InterruptedException {
+        int total = tiles.length * rounds;
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger found = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+                int index;
+                while ((index = next.getAndIncrement()) < total) {
+                    int[] tile = tiles[index % tiles.length];
+                    if (provider.getTile(tile[0], tile[1], tile[2]) != TileProvider.NO_TILE) {
+                        found.incrementAndGet();
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - begin;
+        Assert.assertTrue(found.get() > 0);
+        return nanos;
+    }
+
+    private static int[][] tiles(MapBoxOfflineTileProvider provider) {
+        int minZoom = (int) provider.getMinimumZoom();
+        int maxZoom = Math.min((int) provider.getMaximumZoom(), MAX_ZOOM);
+        int count = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            count += 1 << (zoom << 1);
+        }
+        int[][] tiles = new int[count][];
+        int i = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            int size = 1 << zoom;
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    tiles[i++] = new int[]{ x, y, zoom };
+                }
+            }
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,125 @@
+package com.getsixtyfour.openvpnmgmt.android;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.getsixtyfour.openvpnmgmt.net.TcpTransport;
+import com.getsixtyfour.openvpnmgmt.net.Transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import io.github.getsixtyfour.openpyn.LatencySummary;
+
+/**
+ * Compares the round trip latency of a management command over TCP loopback and over a Unix domain socket, results are written
+ * to logcat with the tag TransportBenchmark.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TransportBenchmark {
+
+    private static final String TAG = "TransportBenchmark";
+
+    private static final String SOCKET_NAME = "openvpnmgmt-benchmark";
+
+    private static final int WARMUP_ROUND_TRIPS = 1000;
+
+    private static final int ROUND_TRIPS = 10000;
+
+    @Test
+    public void benchmarkTcp() throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread thread = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    echo(socket.getInputStream(), socket.getOutputStream());
+                } catch (IOException e) {
+                    Log.e(TAG, e.toString());
+                }
+            });
+            thread.start();
+            try (Transport transport = new TcpTransport("127.0.0.1", server.getLocalPort(), false)) {
+                report("tcp", measure(transport));
+            }
+            thread.join();
+        }
+    }
+
+    @Test
+    public void benchmarkUnix() throws IOException, InterruptedException {
+        LocalServerSocket server = new LocalServerSocket(SOCKET_NAME);
+        try {
+            Thread thread = new Thread(() -> {
+                try (LocalSocket socket = server.accept()) {
+                    echo(socket.getInputStream(), socket.getOutputStream());
+                } catch (IOException e) {
+                    Log.e(TAG, e.toString());
+                }
+            });
+            thread.start();
+            try (Transport transport = new LocalSocketTransport("@" + SOCKET_NAME)) {
+                report("unix", measure(transport));
+            }
+            thread.join();
+        } finally {
+            server.close();
+        }
+    }
+
+    @SuppressWarnings("NestedAssignment")
+    private static void echo(InputStream input, OutputStream output) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            out.write(line);
+            out.newLine();
+            out.flush();
+        }
+    }
+
+    private static long[] measure(Transport transport) throws IOException {
+        Assert.assertTrue(transport.isConnected());
+        BufferedReader in = new BufferedReader(new InputStreamReader(transport.getInputStream(), StandardCharsets.UTF_8));
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(transport.getOutputStream(), StandardCharsets.UTF_8));
+        long[] samples = new long[ROUND_TRIPS];
+        for (int i = -WARMUP_ROUND_TRIPS; i < ROUND_TRIPS; i++) {
+            long start = System.nanoTime();
+            out.write(">BYTECOUNT:1,1");
+            out.newLine();
+            out.flush();
+            Assert.assertNotNull(in.readLine());
+            if (i >= 0) {
+                samples[i] = System.nanoTime() - start;
+            }
+        }
+        return samples;
+    }
+
+    private static void report(String name, long[] samples) {
+        LatencySummary summary = new LatencySummary(samples);
+        Log.i(TAG, String.format(Locale.ROOT, "%s: %s over %d round trips", name, summary, summary.getCount()));
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.getsixtyfour.openpyn;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The mean and percentiles of the latency samples of a benchmark, in nanoseconds.
+ *
+ * @author 1951FDG
+ */
+
+public final class LatencySummary {
+
+    private final int mCount;
+
+    private final long mP50;
+
+    private final long mP99;
+
+    private final long mSum;
+
+    /**
+     * @param samples the latency of each operation, sorted in place
+     */
+    @SuppressWarnings("MagicNumber")
+    public LatencySummary(long[] samples) {
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("samples can't be empty");
+        }
+        Arrays.sort(samples);
+        long sum = 0L;
+        for (long sample : samples) {
+            sum += sample;
+        }
+        mCount = samples.length;
+        mSum = sum;
+        mP50 = samples[samples.length / 2];
+        mP99 = samples[(samples.length * 99) / 100];
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getMean() {
+        return mSum / mCount;
+    }
+
+    public long getP50() {
+        return mP50;
+    }
+
+    public long getP99() {
+        return mP99;
+    }
+
+    /**
+     * @return the number of operations per second
+     */
+    public double getRate() {
+        return (mCount * 1.0e9) / mSum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "mean %d ns, p50 %d ns, p99 %d ns", getMean(), mP50, mP99);
+    }
+}
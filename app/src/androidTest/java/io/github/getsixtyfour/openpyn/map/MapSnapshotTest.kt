@@ -0,0 +1,114 @@
+package io.github.getsixtyfour.openpyn.map
+
+import android.text.SpannableString
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.abdeveloper.library.MultiSelectModelExtra
+import io.github.getsixtyfour.openpyn.utils.ServerCatalog
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * @author 1951FDG
+ */
+@RunWith(AndroidJUnit4::class)
+class MapSnapshotTest {
+    private lateinit var mFile: File
+
+    @Before
+    fun setUp() {
+        mFile = File.createTempFile("map", ".snapshot")
+    }
+
+    @After
+    fun tearDown() {
+        mFile.delete()
+    }
+
+    /**
+     * Test of write and read methods, of class MapSnapshot.
+     */
+    @Test
+    fun testRoundTrip() {
+        snapshot().write(mFile, HASH)
+        val snapshot = MapSnapshot.read(mFile, HASH)
+        assertNotNull(snapshot)
+        snapshot!!
+        assertEquals(2, snapshot.countries.size)
+        val country = snapshot.countries[1] as MultiSelectModelExtra
+        assertEquals(2, country.id)
+        assertEquals("Fiji", country.name.toString())
+        assertEquals("fj", country.tag)
+        assertEquals("🇫🇯", country.unicode)
+        val servers = snapshot.servers
+        assertEquals(3, servers.size)
+        assertEquals(2, servers.flagCount)
+        assertEquals(2, servers.countryCount)
+        assertEquals("fj", servers.flag(2))
+        assertEquals("Fiji", servers.country(2))
+        assertEquals(-17.7134, servers.latitude(2), 0.0)
+        assertEquals(178.065, servers.longitude(2), 0.0)
+        // The two servers at the same location in Albania are one
+        assertEquals(ServerCatalog.CATEGORY_STANDARD or ServerCatalog.CATEGORY_P2P, servers.categories(0))
+        assertArrayEquals(arrayOf("al 1", "al 2", "fj 1"), snapshot.titles)
+    }
+
+    /**
+     * Test of read method with the hash of other resources, of class MapSnapshot.
+     */
+    @Test
+    fun testReadOtherHash() {
+        snapshot().write(mFile, HASH)
+        assertNull(MapSnapshot.read(mFile, HASH + 1))
+    }
+
+    /**
+     * Test of read method with a snapshot of another version, of class MapSnapshot.
+     */
+    @Test
+    fun testReadOtherVersion() {
+        snapshot().write(mFile, HASH)
+        RandomAccessFile(mFile, "rw").use {
+            it.seek(4)
+            it.writeInt(MapSnapshot.VERSION - 1)
+        }
+        assertNull(MapSnapshot.read(mFile, HASH))
+    }
+
+    /**
+     * Test of read method with a truncated or missing snapshot, of class MapSnapshot.
+     */
+    @Test
+    fun testReadTruncated() {
+        snapshot().write(mFile, HASH)
+        RandomAccessFile(mFile, "rw").use { it.setLength(it.length() - 1) }
+        assertNull(MapSnapshot.read(mFile, HASH))
+        mFile.delete()
+        assertNull(MapSnapshot.read(mFile, HASH))
+    }
+
+    companion object {
+        private const val HASH = 0x0123456789ABCDEFL
+
+        private fun snapshot(): MapSnapshot {
+            val countries = listOf(
+                MultiSelectModelExtra(1, SpannableString("Albania"), 0, "al", "🇦🇱"),
+                MultiSelectModelExtra(2, SpannableString("Fiji"), 0, "fj", "🇫🇯")
+            )
+            val servers = ServerCatalog.Builder()
+                .add("al", "Albania", 41.3275, 19.8189, ServerCatalog.CATEGORY_STANDARD)
+                .add("al", "Albania", 41.3275, 19.8189, ServerCatalog.CATEGORY_P2P)
+                .add("al", "Albania", 40.7239, 19.5561, ServerCatalog.CATEGORY_STANDARD)
+                .add("fj", "Fiji", -17.7134, 178.065, ServerCatalog.CATEGORY_STANDARD)
+                .build()
+            return MapSnapshot(countries, servers, arrayOf("al 1", "al 2", "fj 1"))
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.getsixtyfour.openpyn.map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.androidmapsextensions.lazy.LazyMarker;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import kotlin.Unit;
+
+/**
+ * The grid is checked through the markers it passes to the filter, which are those inside the bounds, and the ones it hides.
+ * The markers are never shown, the changes queued on the scheduler are dropped before a frame can apply them, so the markers need
+ * no map.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+@RunWith(AndroidJUnit4.class)
+public class MarkerGridTest {
+
+    private static final double[] LONGITUDES = { -180.0, -179.5, -90.0, 0.0, 90.0, 179.5 };
+
+    // Markers outside the bounds of the tests, so that the grid has more than a few columns
+    private static final int FILLERS = 60;
+
+    private final List<LazyMarker> mMarkers = new ArrayList<>();
+
+    private final MarkerScheduler mScheduler = new MarkerScheduler();
+
+    private MarkerGrid mGrid = null;
+
+    @Before
+    public void setUp() {
+        for (double longitude : LONGITUDES) {
+            mMarkers.add(marker(0.0, longitude));
+        }
+        for (int i = 0; i < FILLERS; i++) {
+            mMarkers.add(marker(45.0, -180.0 + ((i * 360.0) / FILLERS)));
+        }
+        mGrid = new MarkerGrid(mMarkers, mScheduler);
+    }
+
+    /**
+     * Test of update method with bounds that cross the antimeridian, of class MarkerGrid.
+     */
+    @Test
+    public void testUpdateAntimeridian() {
+        Set<LazyMarker> hidden = new HashSet<>();
+        Assert.assertEquals(markers(-180.0, -179.5, 179.5), update(bounds(170.0, -170.0), hidden));
+        Assert.assertTrue(hidden.isEmpty());
+        // Moving east across the antimeridian hides the markers left behind on its east side
+        Assert.assertEquals(markers(-180.0, -179.5, -90.0), update(bounds(-180.0, -80.0), hidden));
+        Assert.assertEquals(markers(179.5), hidden);
+    }
+
+    /**
+     * Test of update method with bounds on one side of the antimeridian, of class MarkerGrid.
+     */
+    @Test
+    public void testUpdate() {
+        Set<LazyMarker> hidden = new HashSet<>();
+        Assert.assertEquals(markers(-90.0, 0.0, 90.0), update(bounds(-100.0, 100.0), hidden));
+        Assert.assertEquals(markers(0.0, 90.0), update(bounds(-10.0, 170.0), hidden));
+        Assert.assertEquals(markers(-90.0), hidden);
+    }
+
+    /**
+     * @return the markers on the equator at the longitudes
+     */
+    private Set<LazyMarker> markers(double... longitudes) {
+        Set<LazyMarker> markers = new HashSet<>();
+        for (double longitude : longitudes) {
+            for (LazyMarker marker : mMarkers) {
+                LatLng position = marker.getPosition();
+                if ((position.latitude == 0.0) && (position.longitude == longitude)) {
+                    markers.add(marker);
+                }
+            }
+        }
+        return markers;
+    }
+
+    /**
+     * @return the markers inside the bounds
+     */
+    private Set<LazyMarker> update(LatLngBounds bounds, Set<LazyMarker> hidden) {
+        Set<LazyMarker> shown = new HashSet<>();
+        hidden.clear();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            mGrid.update(bounds, marker -> shown.add(marker), marker -> {
+                hidden.add(marker);
+                return Unit.INSTANCE;
+            });
+            mScheduler.cancel();
+        });
+        return shown;
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    private static LazyMarker marker(double latitude, double longitude) {
+        MarkerOptions options = new MarkerOptions().position(new LatLng(latitude, longitude)).visible(false);
+        // An invisible marker does not touch the map until it is shown
+        return new LazyMarker(null, options, null);
+    }
+
+    private static LatLngBounds bounds(double west, double east) {
+        return new LatLngBounds(new LatLng(-10.0, west), new LatLng(10.0, east));
+    }
+}
@@ -42,12 +42,21 @@
 #include <cassert>
 #include <dlfcn.h>
 #include <jni.h>
+#include <cerrno>
+#include <cstdlib>
 #include <cstring>
+#include <mutex>
+#include <unistd.h>
 
 #ifndef SQLITE_DEFAULT_SECTOR_SIZE
 # define SQLITE_DEFAULT_SECTOR_SIZE 4096
 #endif
 
+#ifndef SQLITE_NDK_MEMORY_VFS_NAME
+// Name of the VFS of the databases copied into memory by MemoryBackup
+# define SQLITE_NDK_MEMORY_VFS_NAME "ndk-memory"
+#endif
+
 #ifndef TAG
 # define TAG "sqlite3ndk"
 #endif
@@ -83,11 +92,17 @@ struct ndk_file
 	// Pointer to AAsset obtained by AAssetManager_open
 	AAsset *asset;
 
-	// Pointer to database content (AAsset_getBuffer)
+	// Pointer to database content (AAsset_getBuffer), nullptr when reading with pread
 	const void *buf;
 
 	// Total length of database file (AAsset_getLength)
 	off_t len;
+
+	// File descriptor of the .apk (AAsset_openFileDescriptor64), -1 when reading from buf
+	int fd;
+
+	// Offset of the database file within fd
+	off64_t start;
 };
 
 /*
@@ -128,6 +143,18 @@ static int ndkOpen(sqlite3_vfs *pVfs, const char *zPath, sqlite3_file *pFile, in
 		return SQLITE_CANTOPEN;
 	}
 
+	// With the URI parameter pread=1 pages are read with pread(2) on a
+	// descriptor private to this connection instead of copied from the
+	// asset buffer. This only works if the file is stored uncompressed,
+	// otherwise fall back to the buffer.
+	int fd = -1;
+	off64_t start = 0;
+	if (sqlite3_uri_boolean(zPath, "pread", 0))
+	{
+		off64_t length;
+		fd = AAsset_openFileDescriptor64(asset, &start, &length);
+	}
+
 	// Get pointer to database. This call can fail in case for example
 	// out of memory. If file inside .apk is compressed, then whole
 	// file must be allocated and read into memory.
@@ -137,17 +164,23 @@ static int ndkOpen(sqlite3_vfs *pVfs, const char *zPath, sqlite3_file *pFile, in
 	// As for today there is no simple way to set if specific file
 	// must be compressed or not. You can control it only by file extension.
 	// Google for: android kNoCompressExt
-	const void *buf = AAsset_getBuffer(asset);
-	if (!buf)
+	const void *buf = nullptr;
+	if (fd < 0)
 	{
-		AAsset_close(asset);
-		return SQLITE_ERROR;
+		buf = AAsset_getBuffer(asset);
+		if (!buf)
+		{
+			AAsset_close(asset);
+			return SQLITE_ERROR;
+		}
 	}
 
 	file->pMethod = ndk->pMethods;
 	file->asset = asset;
 	file->buf = buf;
 	file->len = AAsset_getLength(asset);
+	file->fd = fd;
+	file->start = start;
 	if (pOutFlags)
 	{
 		*pOutFlags = flags;
@@ -280,6 +313,11 @@ static int ndkFileClose(sqlite3_file *pFile)
 {
 	auto *file = reinterpret_cast<ndk_file *>(pFile);
 
+	if (file->fd >= 0)
+	{
+		close(file->fd);
+		file->fd = -1;
+	}
 	if (file->asset)
 	{
 		AAsset_close(file->asset);
@@ -340,7 +378,27 @@ static int ndkFileRead(sqlite3_file *pFile, void *pBuf, int amt, sqlite3_int64 o
 
 	if (got > 0)
 	{
-		memcpy(pBuf, (char *) file->buf + off, got);
+		if (file->fd >= 0)
+		{
+			int done = 0;
+			while (done < got)
+			{
+				ssize_t n = pread64(file->fd, (char *) pBuf + done, got - done, file->start + off + done);
+				if (n < 0 && errno == EINTR)
+				{
+					continue;
+				}
+				if (n <= 0)
+				{
+					return SQLITE_IOERR_READ;
+				}
+				done += (int) n;
+			}
+		}
+		else
+		{
+			memcpy(pBuf, (char *) file->buf + off, got);
+		}
 	}
 
 	return rc;
@@ -432,6 +490,32 @@ static int ndkFileDeviceCharacteristics(sqlite3_file *)
 	return 0;
 }
 
+/*
+ * sqlite3_file.xFetch - memory-mapped I/O, enabled with PRAGMA mmap_size.
+ * Pages are returned as pointers into the asset buffer, so no copy is made.
+ * Reading with pread returns no pointer, and SQLite falls back to xRead
+ */
+static int ndkFileFetch(sqlite3_file *pFile, sqlite3_int64 iOfst, int iAmt, void **pp)
+{
+	const ndk_file *file = reinterpret_cast<ndk_file *>(pFile);
+
+	*pp = nullptr;
+	if (file->buf && iOfst >= 0 && iOfst + iAmt <= file->len)
+	{
+		*pp = (char *) file->buf + iOfst;
+	}
+
+	return SQLITE_OK;
+}
+
+/*
+ * sqlite3_file.xUnfetch - nothing to release, the asset buffer stays valid until xClose
+ */
+static int ndkFileUnfetch(sqlite3_file *, sqlite3_int64, void *)
+{
+	return SQLITE_OK;
+}
+
 /*
  * Register into SQLite. For more information see sqlite3ndk.h
  */
@@ -470,7 +554,7 @@ int sqlite3_ndk_init(AAssetManager *assetMgr, const char *vfsName, int makeDflt,
 	// vfsFile
 	static const sqlite3_io_methods ndkFileMethods =
 		{
-			1,
+			3,
 			ndkFileClose,
 			ndkFileRead,
 			ndkFileWrite,
@@ -482,7 +566,14 @@ int sqlite3_ndk_init(AAssetManager *assetMgr, const char *vfsName, int makeDflt,
 			ndkFileCheckReservedLock,
 			ndkFileControl,
 			ndkFileSectorSize,
-			ndkFileDeviceCharacteristics
+			ndkFileDeviceCharacteristics,
+			// No shared memory, the database is never opened in WAL mode
+			nullptr,
+			nullptr,
+			nullptr,
+			nullptr,
+			ndkFileFetch,
+			ndkFileUnfetch
 		};
 
 	// pMethods will be used in ndkOpen
@@ -534,6 +625,428 @@ int sqlite3_ndk_init(AAssetManager *assetMgr, const char *vfsName, int makeDflt,
 	return rc;
 }
 
+/**
+ * A database held in memory by the ndk-memory VFS, see MemoryBackup.
+ * Every connection that opens its name reads the same copy, so no shared
+ * cache is needed to share it, which libsqlite3x is built without
+ */
+typedef struct ndk_image ndk_image;
+struct ndk_image
+{
+	char *name;
+	char *data;
+	sqlite3_int64 len;
+
+	// Set once the copy is complete, only complete images can be opened
+	bool complete;
+
+	// Held by the copy and by each open file, the image is freed with the last one
+	int refs;
+
+	ndk_image *next;
+};
+
+/**
+ * The ndk_memory_file structure is subclass of sqlite3_file specific
+ * to the ndk-memory VFS
+ */
+typedef struct ndk_memory_file ndk_memory_file;
+struct ndk_memory_file
+{
+	const sqlite3_io_methods *pMethod; /*** Must be first ***/
+
+	ndk_image *image;
+};
+
+static std::mutex gImagesMutex;
+
+static ndk_image *gImages = nullptr;
+
+static void ndkImageRelease(ndk_image *image)
+{
+	std::lock_guard<std::mutex> lock(gImagesMutex);
+	if (--image->refs > 0)
+	{
+		return;
+	}
+	for (ndk_image **p = &gImages; *p; p = &(*p)->next)
+	{
+		if (*p == image)
+		{
+			*p = image->next;
+			break;
+		}
+	}
+	free(image->data);
+	free(image->name);
+	delete image;
+}
+
+/*
+ * sqlite3_vfs.xOpen - open a complete image by name, read-only like the
+ * ndk-asset VFS
+ */
+static int ndkMemoryOpen(sqlite3_vfs *pVfs, const char *zPath, sqlite3_file *pFile, int flags, int *pOutFlags)
+{
+	const ndk_vfs *ndk = reinterpret_cast<ndk_vfs *>(pVfs);
+	auto *file = reinterpret_cast<ndk_memory_file *>(pFile);
+
+	file->pMethod = nullptr;
+
+	if (!zPath ||
+		(flags & SQLITE_OPEN_DELETEONCLOSE) ||
+		!(flags & SQLITE_OPEN_READONLY) ||
+		(flags & SQLITE_OPEN_READWRITE) ||
+		(flags & SQLITE_OPEN_CREATE) ||
+		!(flags & SQLITE_OPEN_MAIN_DB)
+		)
+	{
+		return SQLITE_PERM;
+	}
+
+	std::lock_guard<std::mutex> lock(gImagesMutex);
+	for (ndk_image *image = gImages; image; image = image->next)
+	{
+		if (image->complete && (strcmp(image->name, zPath) == 0))
+		{
+			image->refs++;
+			file->pMethod = ndk->pMethods;
+			file->image = image;
+			if (pOutFlags)
+			{
+				*pOutFlags = flags;
+			}
+			return SQLITE_OK;
+		}
+	}
+
+	return SQLITE_CANTOPEN;
+}
+
+/*
+ * sqlite3_vfs.xAccess - tests if a complete image exists
+ */
+static int ndkMemoryAccess(sqlite3_vfs *, const char *zPath, int flags, int *pResOut)
+{
+	*pResOut = 0;
+
+	switch (flags)
+	{
+		case SQLITE_ACCESS_EXISTS:
+		case SQLITE_ACCESS_READ:
+		{
+			std::lock_guard<std::mutex> lock(gImagesMutex);
+			for (ndk_image *image = gImages; image; image = image->next)
+			{
+				if (image->complete && (strcmp(image->name, zPath) == 0))
+				{
+					*pResOut = 1;
+					break;
+				}
+			}
+		}
+			break;
+		default:
+			break;
+	}
+
+	return SQLITE_OK;
+}
+
+/*
+ * sqlite3_file.xClose - release the image opened in sqlite3_vfs.xOpen
+ */
+static int ndkMemoryFileClose(sqlite3_file *pFile)
+{
+	auto *file = reinterpret_cast<ndk_memory_file *>(pFile);
+
+	if (file->image)
+	{
+		ndkImageRelease(file->image);
+		file->image = nullptr;
+	}
+
+	return SQLITE_OK;
+}
+
+/*
+ * sqlite3_file.xRead - database read from the image, short reads are
+ * zero-filled as in ndkFileRead
+ */
+static int ndkMemoryFileRead(sqlite3_file *pFile, void *pBuf, int amt, sqlite3_int64 offset)
+{
+	const ndk_memory_file *file = reinterpret_cast<ndk_memory_file *>(pFile);
+	const ndk_image *image = file->image;
+
+	if (image == nullptr || offset < 0)
+	{
+		return SQLITE_IOERR_READ;
+	}
+
+	sqlite3_int64 got = image->len - offset;
+	if (got >= amt)
+	{
+		memcpy(pBuf, image->data + offset, amt);
+		return SQLITE_OK;
+	}
+	if (got < 0)
+	{
+		got = 0;
+	}
+	memcpy(pBuf, image->data + offset, (size_t) got);
+	memset(&((char *) pBuf)[got], 0, (size_t) (amt - got));
+
+	return SQLITE_IOERR_SHORT_READ;
+}
+
+/*
+ * sqlite3_file.xFileSize - get the length of the image
+ */
+static int ndkMemoryFileSize(sqlite3_file *pFile, sqlite3_int64 *pSize)
+{
+	const ndk_memory_file *file = reinterpret_cast<ndk_memory_file *>(pFile);
+	*pSize = file->image->len;
+
+	return SQLITE_OK;
+}
+
+/*
+ * sqlite3_file.xFetch - memory-mapped I/O, enabled with PRAGMA mmap_size.
+ * Pages are returned as pointers into the image, so no copy is made
+ */
+static int ndkMemoryFileFetch(sqlite3_file *pFile, sqlite3_int64 iOfst, int iAmt, void **pp)
+{
+	const ndk_memory_file *file = reinterpret_cast<ndk_memory_file *>(pFile);
+	const ndk_image *image = file->image;
+
+	*pp = nullptr;
+	if (image && iOfst >= 0 && iOfst + iAmt <= image->len)
+	{
+		*pp = image->data + iOfst;
+	}
+
+	return SQLITE_OK;
+}
+
+/*
+ * Register the ndk-memory VFS into SQLite, its other calls are redirected to osVfs
+ */
+static int sqlite3_ndk_memory_init(const char *osVfs)
+{
+	static ndk_vfs memoryVfs;
+
+	if (memoryVfs.vfsDefault)
+	{
+		return SQLITE_OK;
+	}
+
+	memoryVfs.vfsDefault = sqlite3_vfs_find(osVfs);
+	if (memoryVfs.vfsDefault == nullptr)
+	{
+		return SQLITE_ERROR;
+	}
+
+	static const sqlite3_io_methods memoryFileMethods =
+		{
+			3,
+			ndkMemoryFileClose,
+			ndkMemoryFileRead,
+			ndkFileWrite,
+			ndkFileTruncate,
+			ndkFileSync,
+			ndkMemoryFileSize,
+			ndkFileLock,
+			ndkFileUnlock,
+			ndkFileCheckReservedLock,
+			ndkFileControl,
+			ndkFileSectorSize,
+			ndkFileDeviceCharacteristics,
+			// No shared memory, the database is never opened in WAL mode
+			nullptr,
+			nullptr,
+			nullptr,
+			nullptr,
+			ndkMemoryFileFetch,
+			ndkFileUnfetch
+		};
+
+	memoryVfs.pMethods = &memoryFileMethods;
+
+	memoryVfs.vfs.iVersion = 3;
+	memoryVfs.vfs.szOsFile = sizeof(ndk_memory_file);
+	memoryVfs.vfs.mxPathname = SQLITE_NDK_VFS_MAX_PATH;
+	memoryVfs.vfs.pNext = nullptr;
+	memoryVfs.vfs.zName = SQLITE_NDK_MEMORY_VFS_NAME;
+	memoryVfs.vfs.pAppData = nullptr;
+	memoryVfs.vfs.xOpen = ndkMemoryOpen;
+	memoryVfs.vfs.xDelete = ndkDelete;
+	memoryVfs.vfs.xAccess = ndkMemoryAccess;
+	memoryVfs.vfs.xFullPathname = ndkFullPathname;
+	memoryVfs.vfs.xDlOpen = nullptr;
+	memoryVfs.vfs.xDlError = nullptr;
+	memoryVfs.vfs.xDlSym = nullptr;
+	memoryVfs.vfs.xDlClose = nullptr;
+	memoryVfs.vfs.xRandomness = ndkRandomness;
+	memoryVfs.vfs.xSleep = ndkSleep;
+	memoryVfs.vfs.xCurrentTime = ndkCurrentTime;
+	memoryVfs.vfs.xGetLastError = ndkGetLastError;
+	memoryVfs.vfs.xCurrentTimeInt64 = ndkCurrentTimeInt64;
+	memoryVfs.vfs.xSetSystemCall = nullptr;
+	memoryVfs.vfs.xGetSystemCall = nullptr;
+	memoryVfs.vfs.xNextSystemCall = nullptr;
+
+	int rc = sqlite3_vfs_register(&memoryVfs.vfs, 0);
+	if (rc != SQLITE_OK)
+	{
+		memoryVfs.vfsDefault = nullptr;
+	}
+
+	return rc;
+}
+
+/**
+ * State of a copy started by MemoryBackup.nativeOpen
+ */
+typedef struct ndk_backup ndk_backup;
+struct ndk_backup
+{
+	sqlite3 *src;
+	sqlite3_file *file;
+	ndk_image *image;
+	sqlite3_int64 offset;
+};
+
+static void ndkBackupFinish(ndk_backup *state)
+{
+	if (state->src)
+	{
+		sqlite3_exec(state->src, "COMMIT", nullptr, nullptr, nullptr);
+		sqlite3_close_v2(state->src);
+		state->src = nullptr;
+		state->file = nullptr;
+	}
+}
+
+/*
+ * Start copying the file of source into a new image named name.
+ * The source is read in a read transaction, so it is not changed under the copy.
+ * Returns 0 on failure
+ */
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_cocoahero_android_gmaps_addons_mapbox_MemoryBackup_nativeOpen(JNIEnv *env, jclass, jstring source, jstring name)
+{
+	const char *zSource = env->GetStringUTFChars(source, nullptr);
+	auto *state = new ndk_backup();
+	sqlite3_int64 len = 0;
+	int rc = sqlite3_open_v2(zSource, &state->src, SQLITE_OPEN_READONLY | SQLITE_OPEN_URI, nullptr);
+	env->ReleaseStringUTFChars(source, zSource);
+	if (rc == SQLITE_OK)
+	{
+		rc = sqlite3_exec(state->src, "BEGIN; SELECT 1 FROM sqlite_master LIMIT 1", nullptr, nullptr, nullptr);
+	}
+	if (rc == SQLITE_OK)
+	{
+		rc = sqlite3_file_control(state->src, "main", SQLITE_FCNTL_FILE_POINTER, &state->file);
+	}
+	if (rc == SQLITE_OK && (!state->file || !state->file->pMethods))
+	{
+		rc = SQLITE_CANTOPEN;
+	}
+	if (rc == SQLITE_OK)
+	{
+		rc = state->file->pMethods->xFileSize(state->file, &len);
+	}
+	char *data = nullptr;
+	if (rc == SQLITE_OK)
+	{
+		data = static_cast<char *>(malloc(len > 0 ? (size_t) len : 1));
+		if (!data)
+		{
+			rc = SQLITE_NOMEM;
+		}
+	}
+	if (rc != SQLITE_OK)
+	{
+		ERROR("copy could not be started: %s", sqlite3_errstr(rc));
+		ndkBackupFinish(state);
+		delete state;
+		return 0;
+	}
+	const char *zName = env->GetStringUTFChars(name, nullptr);
+	auto *image = new ndk_image();
+	image->name = strdup(zName);
+	image->data = data;
+	image->len = len;
+	image->complete = false;
+	image->refs = 1;
+	env->ReleaseStringUTFChars(name, zName);
+	{
+		std::lock_guard<std::mutex> lock(gImagesMutex);
+		image->next = gImages;
+		gImages = image;
+	}
+	state->image = image;
+	return reinterpret_cast<jlong>(state);
+}
+
+/*
+ * Copy up to bytes bytes. Returns 1 while there is more to copy,
+ * 0 once the copy is complete or -1 on failure
+ */
+extern "C" JNIEXPORT jint JNICALL
+Java_com_cocoahero_android_gmaps_addons_mapbox_MemoryBackup_nativeStep(JNIEnv *, jclass, jlong handle, jint bytes)
+{
+	auto *state = reinterpret_cast<ndk_backup *>(handle);
+	ndk_image *image = state->image;
+	if (!state->src)
+	{
+		return image->complete ? 0 : -1;
+	}
+	sqlite3_int64 amt = image->len - state->offset;
+	if (amt > bytes)
+	{
+		amt = bytes;
+	}
+	if (amt > 0)
+	{
+		int rc = state->file->pMethods->xRead(state->file, image->data + state->offset, (int) amt, state->offset);
+		if (rc != SQLITE_OK)
+		{
+			ERROR("copy step failed: %s", sqlite3_errstr(rc));
+			ndkBackupFinish(state);
+			return -1;
+		}
+		state->offset += amt;
+	}
+	if (state->offset < image->len)
+	{
+		return 1;
+	}
+	ndkBackupFinish(state);
+	// A database in WAL mode was checkpointed when its last connection closed, the
+	// copy is opened in rollback mode as there is no -wal file next to it
+	if (image->len >= 20 && image->data[18] == 2 && image->data[19] == 2)
+	{
+		image->data[18] = 1;
+		image->data[19] = 1;
+	}
+	std::lock_guard<std::mutex> lock(gImagesMutex);
+	image->complete = true;
+	return 0;
+}
+
+/*
+ * Release the image, it stays in memory as long as a connection has it open
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_cocoahero_android_gmaps_addons_mapbox_MemoryBackup_nativeClose(JNIEnv *, jclass, jlong handle)
+{
+	auto *state = reinterpret_cast<ndk_backup *>(handle);
+	ndkBackupFinish(state);
+	ndkImageRelease(state->image);
+	delete state;
+}
+
 JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved)
 {
 	JNIEnv *env;
@@ -605,5 +1118,11 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved)
 
 	VERBOSE("sqlite3_ndk_init OK");
 
+	if (sqlite3_ndk_memory_init(SQLITE_NDK_VFS_PARENT_VFS) != SQLITE_OK)
+	{
+		ERROR("sqlite3_ndk_memory_init failed!");
+		return JNI_ERR;
+	}
+
 	return JNI_VERSION_1_6;
 }
@@ -85,6 +85,10 @@
  *     SQLITE_NDK_VFS_NAME) == SQLITE_OK)
  *   {
  *     ...
+ *
+ * Pages are copied from the asset buffer by default, "PRAGMA mmap_size"
+ * makes SQLite use them in place. The URI parameter pread=1 reads pages
+ * with pread(2) on a file descriptor private to the connection instead.
  */
 int sqlite3_ndk_init(AAssetManager *assetMgr,
 					 const char *vfsName = SQLITE_NDK_VFS_NAME,
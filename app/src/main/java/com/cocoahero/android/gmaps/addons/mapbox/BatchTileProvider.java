@@ -0,0 +1,29 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+/**
+ * A {@link TileProvider} that can load many tiles at once, which {@link TileCache#prefetch(long[])} uses instead of requesting the
+ * tiles one by one.
+ *
+ * @author 1951FDG
+ */
+
+public interface BatchTileProvider extends TileProvider {
+
+    /**
+     * Load the tiles that are available, tiles that are not are skipped.
+     *
+     * @param keys     the tiles to load, packed by {@link TileCache#key(int, int, int)}
+     * @param consumer called with each tile loaded, on the calling thread
+     */
+    void getTiles(@NonNull long[] keys, @NonNull Consumer consumer);
+
+    interface Consumer {
+
+        void accept(long key, @NonNull Tile tile);
+    }
+}
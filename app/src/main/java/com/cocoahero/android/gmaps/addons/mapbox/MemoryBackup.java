@@ -0,0 +1,80 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.database.SQLException;
+
+import androidx.annotation.NonNull;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.Closeable;
+
+/**
+ * Copies a read-only database into memory, a few pages per {@link #step()} so the copy can run in the background while the source
+ * is read.
+ * <p>
+ * The copy is served by the ndk-memory VFS of sqlite3ndk to every connection that opens {@link #uri(String)}, so all of them read
+ * the same copy. A shared cache memory database can not be used instead, libsqlite3x is built with SQLITE_OMIT_SHARED_CACHE.
+ *
+ * @author 1951FDG
+ */
+
+final class MemoryBackup implements Closeable {
+
+    private static final int BYTES_PER_STEP = 64 * 4096;
+
+    private long mHandle;
+
+    /**
+     * @param source the URI of the database to copy, which must not be in WAL mode with frames that are not checkpointed
+     * @param name   the name of the copy, unique in the process
+     * @throws SQLException if the source cannot be opened
+     */
+    MemoryBackup(@NonNull String source, @NonNull String name) {
+        mHandle = nativeOpen(source, name);
+        if (mHandle == 0L) {
+            throw new SQLException("could not start backup of " + source);
+        }
+    }
+
+    /**
+     * Release the copy, which stays in memory as long as a connection has it open.
+     */
+    @Override
+    public void close() {
+        if (mHandle != 0L) {
+            nativeClose(mHandle);
+            mHandle = 0L;
+        }
+    }
+
+    /**
+     * @return {@code true} once the copy is complete
+     * @throws SQLException if the copy failed
+     */
+    boolean step() {
+        int result = nativeStep(mHandle, BYTES_PER_STEP);
+        if (result < 0) {
+            throw new SQLException("backup failed");
+        }
+        return result == 0;
+    }
+
+    /**
+     * @return the URI a connection opens the copy named name with, once the copy is complete
+     */
+    @NonNls
+    @NonNull
+    static String uri(@NonNull String name) {
+        return "file:" + name + "?vfs=ndk-memory&immutable=1&mode=ro";
+    }
+
+    private static native void nativeClose(long handle);
+
+    private static native long nativeOpen(String source, String name);
+
+    private static native int nativeStep(long handle, int bytes);
+
+    static {
+        System.loadLibrary("sqlite3ndk");
+    }
+}
@@ -0,0 +1,166 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Serves tiles above the maximum zoom level of a {@link TileProvider} by cropping the ancestor tile at the maximum zoom level and
+ * scaling it up, tiles at or below the maximum zoom level are passed through.
+ * <p>
+ * Synthesized tiles are not cached here, put a {@link TileCache} in front of this provider. The few most recently decoded
+ * ancestors are kept, so the tiles synthesized from one ancestor decode it only once.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class OverzoomTileProvider implements BatchTileProvider {
+    //region Statics
+
+    public static final int DEFAULT_OVERZOOM = 3;
+
+    // Number of decoded ancestors kept, the four around the center of the screen at the maximum zoom level.
+    private static final int MAX_ANCESTORS = 4;
+
+    private static final int PNG_QUALITY = 100;
+
+    //endregion Statics
+
+    //region Members
+
+    private final LruCache<Long, Bitmap> mAncestors = new LruCache<>(MAX_ANCESTORS);
+
+    private final int mMaximumZoom;
+
+    private final int mOverzoom;
+
+    private final TileProvider mProvider;
+
+    //endregion Members
+
+    //region Constructors
+
+    public OverzoomTileProvider(@NonNull TileProvider provider, int maximumZoom) {
+        this(provider, maximumZoom, DEFAULT_OVERZOOM);
+    }
+
+    /**
+     * @param provider    the provider tiles are loaded from
+     * @param maximumZoom the maximum zoom level of the provider
+     * @param overzoom    the number of zoom levels above the maximum zoom level tiles are synthesized for
+     */
+    public OverzoomTileProvider(@NonNull TileProvider provider, int maximumZoom, int overzoom) {
+        mProvider = provider;
+        mMaximumZoom = maximumZoom;
+        mOverzoom = overzoom;
+    }
+
+    //endregion Constructors
+
+    //region Accessors
+
+    /**
+     * @return the maximum zoom level including the synthesized zoom levels
+     */
+    public float getMaximumZoom() {
+        return mMaximumZoom + mOverzoom;
+    }
+
+    //endregion Accessors
+
+    //region TileProvider
+
+    @SuppressWarnings("ParameterNameDiffersFromOverriddenParameter")
+    @Nullable
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        if (zoom <= mMaximumZoom) {
+            return mProvider.getTile(x, y, zoom);
+        }
+        if (zoom > (mMaximumZoom + mOverzoom)) {
+            return NO_TILE;
+        }
+        int shift = zoom - mMaximumZoom;
+        Bitmap ancestor = getAncestor(x >> shift, y >> shift);
+        if (ancestor == null) {
+            return NO_TILE;
+        }
+        int mask = (1 << shift) - 1;
+        int width = ancestor.getWidth() >> shift;
+        int height = ancestor.getHeight() >> shift;
+        if ((width == 0) || (height == 0)) {
+            return NO_TILE;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setScale(1 << shift, 1 << shift);
+        Bitmap bitmap = Bitmap.createBitmap(ancestor, (x & mask) * width, (y & mask) * height, width, height, matrix, true);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bitmap.compress(CompressFormat.PNG, PNG_QUALITY, stream);
+        bitmap.recycle();
+        return new Tile(ancestor.getWidth(), ancestor.getHeight(), stream.toByteArray());
+    }
+
+    //endregion TileProvider
+
+    //region BatchTileProvider
+
+    /**
+     * Tiles at or below the maximum zoom level are loaded together if the provider is a {@link BatchTileProvider}, synthesized
+     * tiles one by one.
+     */
+    @Override
+    public void getTiles(@NonNull long[] keys, @NonNull Consumer consumer) {
+        long[] direct = new long[keys.length];
+        int length = 0;
+        for (long key : keys) {
+            int zoom = TileCache.zoom(key);
+            if ((zoom <= mMaximumZoom) && (mProvider instanceof BatchTileProvider)) {
+                direct[length++] = key;
+            } else {
+                Tile tile = getTile(TileCache.x(key), TileCache.y(key), zoom);
+                if ((tile != null) && (tile != NO_TILE)) {
+                    consumer.accept(key, tile);
+                }
+            }
+        }
+        if (length > 0) {
+            ((BatchTileProvider) mProvider).getTiles(Arrays.copyOf(direct, length), consumer);
+        }
+    }
+
+    //endregion BatchTileProvider
+
+    //region Instance Methods
+
+    @Nullable
+    private Bitmap getAncestor(int x, int y) {
+        Long key = TileCache.key(x, y, mMaximumZoom);
+        Bitmap bitmap = mAncestors.get(key);
+        if (bitmap == null) {
+            Tile tile = mProvider.getTile(x, y, mMaximumZoom);
+            if ((tile == null) || (tile.data == null)) {
+                return null;
+            }
+            bitmap = BitmapFactory.decodeByteArray(tile.data, 0, tile.data.length);
+            if (bitmap == null) {
+                return null;
+            }
+            mAncestors.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    //endregion Instance Methods
+}
@@ -0,0 +1,758 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.requery.android.database.sqlite.SQLiteCursor;
+import io.requery.android.database.sqlite.SQLiteDatabase;
+import io.requery.android.database.sqlite.SQLiteDatabase.CursorFactory;
+import io.requery.android.database.sqlite.SQLiteDirectCursorDriver;
+import io.requery.android.database.sqlite.SQLiteQuery;
+
+/**
+ * Reads an MBTiles database through the requery binding on sqlite3x, which has the ndk-asset VFS to read databases straight from
+ * the APK.
+ * <p>
+ * Tiles are read concurrently on a pool of read-only connections, each with its own prepared statements. If the database has the
+ * map and images tables with integer tile_ids, the map table is held in memory as an index and images are cached by tile_id, so
+ * the coordinates that share an image share its bytes. Databases whose tile_ids are not integers, such as the hashes some writers
+ * use, are read through the tiles view.
+ * <p>
+ * Batches are read {@link TileStores#BATCH_SIZE} tiles per statement, with the keys bound to a VALUES list joined to the tiles
+ * table, or with the tile_ids of the images that are not cached bound to an IN list.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class RequeryTileStore implements TileStore {
+    //region Statics
+
+    // Number of read-only connections, each with its own prepared statement, tiles are read concurrently on.
+    public static final int DEFAULT_READERS = 4;
+
+    // Budget in bytes of the tile_id to image cache.
+    public static final int DEFAULT_IMAGE_CACHE_SIZE = 8 * 1024 * 1024;
+
+    // Largest map table that is loaded into memory as a (zoom, x, y) to tile_id index, 16 bytes per tile.
+    private static final int MAX_INDEX_SIZE = 256 * 1024;
+
+    private static final long NO_TILE_ID = Long.MIN_VALUE;
+
+    // Largest part of the database SQLite reads in place through memory-mapped I/O instead of copying pages.
+    private static final long MMAP_SIZE = 256L * 1024L * 1024L;
+
+    private static final String TAG = "RequeryTileStore";
+
+    // Names the memory backed copies, see MemoryBackup.
+    private static final AtomicInteger sMemoryDatabases = new AtomicInteger();
+
+    // TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB);
+    private static final String mSql = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    // TABLE map (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_id INTEGER);
+    private static final String mMapSql = "SELECT tile_id FROM map WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    // TABLE images (tile_data BLOB, tile_id INTEGER);
+    private static final String mImageSql = "SELECT tile_data FROM images WHERE tile_id = ?";
+
+    private static final String mBatchSql = TileStores.batchSql(TileStores.BATCH_SIZE);
+
+    private static final String mImagesSql = imagesSql(TileStores.BATCH_SIZE);
+
+    //endregion Statics
+
+    //region Members
+
+    @Nullable
+    private final LatLngBounds mBounds;
+
+    // Whether the schema has the map and images tables, and every tile_id is an integer
+    private final boolean mDeduplicated;
+
+    // Images by tile_id, shared by all the coordinates that reference the same image, null if the schema has no images table
+    @Nullable
+    private final LruCache<Long, byte[]> mImages;
+
+    // (zoom, x, tms row) to tile_id, null if the map table is too large
+    @Nullable
+    private final TileIndex mIndex;
+
+    private final Object mLock = new Object();
+
+    // Values of the metadata table, which is small enough to be read once
+    private final Map<String, String> mMetadata;
+
+    // Replaced once when a memory backed copy of the database is ready
+    private volatile ReaderPool mPool;
+
+    private volatile boolean mClosed = false;
+
+    private volatile boolean mInMemory = false;
+
+    //endregion Members
+
+    //region Constructors
+
+    public RequeryTileStore(@NonNull String pathToFile) {
+        this(pathToFile, DEFAULT_READERS);
+    }
+
+    /**
+     * @param pathToFile the path to a read-only, immutable database
+     * @param readers    the number of connections tiles are read on concurrently
+     * @throws SQLException if the database cannot be opened
+     */
+    public RequeryTileStore(@NonNull String pathToFile, int readers) {
+        this(open(pathToFile, readers, null));
+    }
+
+    /**
+     * Read tiles from a memory backed copy of the database. The copy is made in the background, tiles are read from the file until
+     * it is complete.
+     *
+     * @param factory    an optional factory class that is called to instantiate a cursor when query is called, or null for default
+     * @param pathToFile the path to a read-only, immutable database
+     * @throws SQLException if the database cannot be opened
+     */
+    public RequeryTileStore(@Nullable CursorFactory factory, @NonNull String pathToFile) {
+        this(open(pathToFile, DEFAULT_READERS, null));
+        copyToMemory(factory, pathToFile);
+    }
+
+    private RequeryTileStore(@NonNull SQLiteDatabase[] databases) {
+        SQLiteDatabase database = databases[0];
+        mDeduplicated = hasTable(database, "map") && hasTable(database, "images") && hasIntegerTileIds(database);
+        mImages = mDeduplicated ? new LruCache<Long, byte[]>(DEFAULT_IMAGE_CACHE_SIZE) {
+            @Override
+            protected int sizeOf(@NonNull Long key, @NonNull byte[] value) {
+                return value.length;
+            }
+        } : null;
+        mIndex = mDeduplicated ? loadIndex(database) : null;
+        mMetadata = loadMetadata(database);
+        mBounds = TileStores.parseBounds(mMetadata.get("bounds"));
+        mPool = new ReaderPool(databases, mDeduplicated);
+    }
+
+    //endregion Constructors
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RequeryTileStore{" + "mDatabase='" + mPool.getPath() + "'" + ", mSql='" + mSql + "'" + ", mReaders=" + mPool.size()
+                + ", mIndex=" + ((mIndex != null) ? mIndex.size() : 0) + ", mImages=" + ((mImages != null) ? mImages.toString() : null)
+                + "}";
+    }
+
+    //region TileStore
+
+    /**
+     * Closes the connections, waiting for the reads in flight.
+     */
+    @Override
+    public void close() {
+        ReaderPool pool;
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            pool = mPool;
+        }
+        pool.close();
+    }
+
+    @Nullable
+    @Override
+    public LatLngBounds getBounds() {
+        return mBounds;
+    }
+
+    @Nullable
+    @Override
+    public String getMetadata(@NonNull String name) {
+        return mMetadata.get(name);
+    }
+
+    /**
+     * @return true if the schema has the map and images tables, and every tile_id is an integer
+     */
+    @Override
+    public boolean isDeduplicated() {
+        return mDeduplicated;
+    }
+
+    @Nullable
+    @Override
+    public byte[] read(int zoom, int x, int y) {
+        int row = (1 << zoom) - 1 - y;
+        long tileId = NO_TILE_ID;
+        if ((mIndex != null) && (mImages != null)) {
+            tileId = mIndex.get(TileCache.key(x, row, zoom));
+            if (tileId == NO_TILE_ID) {
+                return null;
+            }
+            // Images shared with coordinates read before do not need a connection at all
+            byte[] data = mImages.get(tileId);
+            if (data != null) {
+                return data;
+            }
+        }
+        long id = tileId;
+        return withReader(reader -> read(reader, x, row, zoom, id));
+    }
+
+    @Override
+    public void readAll(@NonNull long[] keys, @NonNull Consumer consumer) {
+        if ((mIndex != null) && (mImages != null)) {
+            readImages(keys, consumer);
+            return;
+        }
+        for (int start = 0; start < keys.length; start += TileStores.BATCH_SIZE) {
+            int from = start;
+            int to = Math.min(keys.length, start + TileStores.BATCH_SIZE);
+            // Each batch takes a reader of its own, so requests from the map are not held up by a long batch
+            if (withReader(reader -> reader.readTiles(keys, from, to, consumer)) == null) {
+                return;
+            }
+        }
+    }
+
+    //endregion TileStore
+
+    //region Instance Methods
+
+    /**
+     * Copy the database into memory on a background thread, then replace the file backed readers with readers on the copy.
+     */
+    private void copyToMemory(@Nullable CursorFactory factory, @NonNull String path) {
+        @NonNls String name = "mbtiles" + sMemoryDatabases.incrementAndGet();
+        Thread thread = new Thread(() -> {
+            long start = SystemClock.elapsedRealtime();
+            try (MemoryBackup backup = new MemoryBackup(path, name)) {
+                while (!backup.step()) {
+                    if (mClosed) {
+                        return;
+                    }
+                    Thread.yield();
+                }
+                // Each reader holds the copy in memory until it is closed
+                replacePool(new ReaderPool(open(MemoryBackup.uri(name), mPool.size(), factory), mDeduplicated));
+                Log.d(TAG, "Copied " + path + " to memory in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            } catch (SQLException e) {
+                Log.e(TAG, e.toString());
+            }
+        }, "MBTileBackup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @return true once tiles are read from the memory backed copy of the database
+     */
+    @VisibleForTesting
+    boolean isInMemory() {
+        return mInMemory;
+    }
+
+    @Nullable
+    private byte[] read(@NonNull TileReader reader, int x, int row, int zoom, long tileId) {
+        if (mImages == null) {
+            return reader.read(x, row, zoom);
+        }
+        if (tileId == NO_TILE_ID) {
+            tileId = reader.readTileId(x, row, zoom);
+            if (tileId == NO_TILE_ID) {
+                return null;
+            }
+            byte[] data = mImages.get(tileId);
+            if (data != null) {
+                return data;
+            }
+        }
+        byte[] data = reader.readImage(tileId);
+        if (data != null) {
+            mImages.put(tileId, data);
+        }
+        return data;
+    }
+
+    /**
+     * Resolve the keys through the index and serve the cached images, then read the images that are not cached by tile_id.
+     */
+    private void readImages(@NonNull long[] keys, @NonNull Consumer consumer) {
+        assert (mIndex != null) && (mImages != null);
+        long[] pendingKeys = new long[keys.length];
+        long[] pendingIds = new long[keys.length];
+        int pending = 0;
+        for (long key : keys) {
+            int zoom = TileCache.zoom(key);
+            long tileId = mIndex.get(TileCache.key(TileCache.x(key), (1 << zoom) - 1 - TileCache.y(key), zoom));
+            if (tileId == NO_TILE_ID) {
+                continue;
+            }
+            byte[] data = mImages.get(tileId);
+            if (data != null) {
+                consumer.accept(key, data);
+            } else {
+                pendingKeys[pending] = key;
+                pendingIds[pending] = tileId;
+                pending++;
+            }
+        }
+        if (pending == 0) {
+            return;
+        }
+        long[] ids = distinct(pendingIds, pending);
+        // Held here rather than looked up in the image cache, which may evict them before they are handed out
+        Map<Long, byte[]> images = new HashMap<>(ids.length);
+        for (int start = 0; start < ids.length; start += TileStores.BATCH_SIZE) {
+            int from = start;
+            int to = Math.min(ids.length, start + TileStores.BATCH_SIZE);
+            if (withReader(reader -> reader.readImages(ids, from, to, (tileId, data) -> {
+                images.put(tileId, data);
+                mImages.put(tileId, data);
+            })) == null) {
+                return;
+            }
+        }
+        for (int i = 0; i < pending; i++) {
+            byte[] data = images.get(pendingIds[i]);
+            if (data != null) {
+                consumer.accept(pendingKeys[i], data);
+            }
+        }
+    }
+
+    private void replacePool(@NonNull ReaderPool pool) {
+        ReaderPool old;
+        synchronized (mLock) {
+            if (mClosed) {
+                pool.close();
+                return;
+            }
+            old = mPool;
+            mPool = pool;
+            mInMemory = true;
+        }
+        // Waits for the reads in flight on the file backed readers
+        old.close();
+    }
+
+    /**
+     * Run the task on a reader, waiting for one to be released if all are in use.
+     *
+     * @return the result of the task, or null if the store is closed
+     */
+    @Nullable
+    private <T> T withReader(@NonNull ReaderTask<T> task) {
+        while (true) {
+            ReaderPool pool = mPool;
+            TileReader reader;
+            try {
+                reader = pool.take();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            try {
+                if (!pool.isClosed()) {
+                    return task.run(reader);
+                }
+            } finally {
+                pool.release(reader);
+            }
+            // The pool was closed while waiting for a reader, either by close or because it was replaced by the memory backed pool
+            if (mClosed) {
+                return null;
+            }
+        }
+    }
+
+    //endregion Instance Methods
+
+    //region Statics
+
+    /**
+     * @return the first length values, sorted and without duplicates
+     */
+    @NonNull
+    private static long[] distinct(@NonNull long[] values, int length) {
+        long[] sorted = Arrays.copyOf(values, length);
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if ((i == 0) || (sorted[i] != sorted[i - 1])) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    @NonNls
+    @NonNull
+    private static String imagesSql(int count) {
+        StringBuilder sql = new StringBuilder("SELECT tile_id, tile_data FROM images WHERE tile_id IN (");
+        for (int i = 0; i < count; i++) {
+            sql.append((i == 0) ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    private static boolean hasTable(@NonNull SQLiteDatabase database, @NonNull String name) {
+        @NonNls String sql = "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?";
+        String[] bindArgs = { name };
+        try (Cursor cursor = database.rawQueryWithFactory(null, sql, bindArgs, null, null)) {
+            return cursor.moveToPosition(0);
+        }
+    }
+
+    /**
+     * The map and images path binds and caches tile_ids as longs, which a hash stored as text or blob would all read back as 0.
+     */
+    private static boolean hasIntegerTileIds(@NonNull SQLiteDatabase database) {
+        @NonNls String sql = "SELECT 1 FROM map WHERE typeof(tile_id) != 'integer' LIMIT 1";
+        try (Cursor cursor = database.rawQueryWithFactory(null, sql, null, null, null)) {
+            return !cursor.moveToPosition(0);
+        }
+    }
+
+    @Nullable
+    private static TileIndex loadIndex(@NonNull SQLiteDatabase database) {
+        @NonNls String sql = "SELECT zoom_level, tile_column, tile_row, tile_id FROM map ORDER BY zoom_level, tile_column, tile_row";
+        try (Cursor cursor = database.rawQueryWithFactory(null, sql, null, null, null)) {
+            int count = cursor.getCount();
+            if (count > MAX_INDEX_SIZE) {
+                return null;
+            }
+            long[] keys = new long[count];
+            long[] tileIds = new long[count];
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                keys[i] = TileCache.key(cursor.getInt(1), cursor.getInt(2), cursor.getInt(0));
+                tileIds[i] = cursor.getLong(3);
+                if ((i > 0) && (keys[i] <= keys[i - 1])) {
+                    return null;
+                }
+            }
+            return new TileIndex(keys, tileIds);
+        }
+    }
+
+    @NonNull
+    private static Map<String, String> loadMetadata(@NonNull SQLiteDatabase database) {
+        @NonNls String sql = "SELECT name, value FROM metadata";
+        Map<String, String> metadata = new HashMap<>();
+        try (Cursor cursor = database.rawQueryWithFactory(null, sql, null, null, null)) {
+            while (cursor.moveToNext()) {
+                metadata.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return metadata;
+    }
+
+    @Nullable
+    private static String getSQliteVersion(@NonNull SQLiteDatabase database) {
+        @NonNls String sql = "SELECT sqlite_version() AS sqlite_version";
+        try (Cursor cursor = database.rawQueryWithFactory(null, sql, null, null, null)) {
+            return cursor.moveToPosition(0) ? cursor.getString(0) : null;
+        }
+    }
+
+    /**
+     * Open the same database on several read-only connections.
+     *
+     * @param path    to database file to open
+     * @param readers the number of connections to open
+     * @param factory an optional factory class that is called to instantiate a
+     *                cursor when query is called, or null for default
+     * @return the newly opened databases
+     * @throws SQLException if the database cannot be opened
+     */
+    @NonNull
+    private static SQLiteDatabase[] open(@NonNull String path, int readers, @Nullable CursorFactory factory) {
+        if (readers <= 0) {
+            throw new IllegalArgumentException("readers must be positive");
+        }
+        SQLiteDatabase[] databases = new SQLiteDatabase[readers];
+        for (int i = 0; i < readers; i++) {
+            // databases[i] = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+            databases[i] = SQLiteDatabase.openDatabase(path, factory, SQLiteDatabase.OPEN_READONLY);
+            // The pragma returns the new limit as a row, so it can not go through execSQL
+            try (Cursor cursor = databases[i].rawQuery("PRAGMA mmap_size = " + MMAP_SIZE, null)) {
+                cursor.moveToFirst();
+            }
+        }
+        return databases;
+    }
+
+    /**
+     * Sorted packed (zoom, x, tms row) keys with the tile_id each one references.
+     */
+    private static final class TileIndex {
+
+        private final long[] mKeys;
+
+        private final long[] mTileIds;
+
+        TileIndex(@NonNull long[] keys, @NonNull long[] tileIds) {
+            mKeys = keys;
+            mTileIds = tileIds;
+        }
+
+        long get(long key) {
+            int index = Arrays.binarySearch(mKeys, key);
+            return (index >= 0) ? mTileIds[index] : NO_TILE_ID;
+        }
+
+        int size() {
+            return mKeys.length;
+        }
+    }
+
+    private interface ReaderTask<T> {
+
+        @Nullable
+        T run(@NonNull TileReader reader);
+    }
+
+    /**
+     * The readers of one database, a reader is taken for each read and released afterwards.
+     */
+    private static final class ReaderPool {
+
+        private final SQLiteDatabase mDatabase;
+
+        private final BlockingQueue<TileReader> mReaders;
+
+        private final int mSize;
+
+        private volatile boolean mClosed = false;
+
+        ReaderPool(@NonNull SQLiteDatabase[] databases, boolean deduplicated) {
+            mDatabase = databases[0];
+            mSize = databases.length;
+            mReaders = new ArrayBlockingQueue<>(databases.length);
+            for (SQLiteDatabase database : databases) {
+                mReaders.add(new TileReader(database, deduplicated));
+            }
+        }
+
+        /**
+         * Wait for reads in flight, then hand the closed readers back so later calls to take do not block.
+         */
+        void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            TileReader[] readers = new TileReader[mSize];
+            boolean interrupted = false;
+            for (int i = 0; i < readers.length; i++) {
+                while (readers[i] == null) {
+                    try {
+                        readers[i] = mReaders.take();
+                    } catch (InterruptedException ignored) {
+                        interrupted = true;
+                    }
+                }
+            }
+            for (TileReader reader : readers) {
+                reader.close();
+                mReaders.add(reader);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @NonNull
+        SQLiteDatabase getDatabase() {
+            return mDatabase;
+        }
+
+        @NonNull
+        String getPath() {
+            return mDatabase.getPath();
+        }
+
+        boolean isClosed() {
+            return mClosed;
+        }
+
+        void release(@NonNull TileReader reader) {
+            mReaders.add(reader);
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        @NonNull
+        TileReader take() throws InterruptedException {
+            return mReaders.take();
+        }
+    }
+
+    /**
+     * A connection with its own prepared tile statements, only ever used by one thread at a time.
+     */
+    private static final class TileReader implements Closeable {
+
+        private final SQLiteDatabase mDatabase;
+
+        private final SQLiteQuery mQuery;
+
+        private final SQLiteCursor mCursor;
+
+        private final SQLiteQuery mBatchQuery;
+
+        private final SQLiteCursor mBatchCursor;
+
+        @Nullable
+        private final SQLiteQuery mMapQuery;
+
+        @Nullable
+        private final SQLiteCursor mMapCursor;
+
+        @Nullable
+        private final SQLiteQuery mImageQuery;
+
+        @Nullable
+        private final SQLiteCursor mImageCursor;
+
+        @Nullable
+        private final SQLiteQuery mImagesQuery;
+
+        @Nullable
+        private final SQLiteCursor mImagesCursor;
+
+        TileReader(@NonNull SQLiteDatabase database, boolean deduplicated) {
+            mDatabase = database;
+            mQuery = new SQLiteQuery(database, mSql, null, null);
+            mCursor = new SQLiteCursor(new SQLiteDirectCursorDriver(null, null, null, null), null, mQuery);
+            mBatchQuery = new SQLiteQuery(database, mBatchSql, null, null);
+            mBatchCursor = new SQLiteCursor(new SQLiteDirectCursorDriver(null, null, null, null), null, mBatchQuery);
+            if (deduplicated) {
+                mMapQuery = new SQLiteQuery(database, mMapSql, null, null);
+                mMapCursor = new SQLiteCursor(new SQLiteDirectCursorDriver(null, null, null, null), null, mMapQuery);
+                mImageQuery = new SQLiteQuery(database, mImageSql, null, null);
+                mImageCursor = new SQLiteCursor(new SQLiteDirectCursorDriver(null, null, null, null), null, mImageQuery);
+                mImagesQuery = new SQLiteQuery(database, mImagesSql, null, null);
+                mImagesCursor = new SQLiteCursor(new SQLiteDirectCursorDriver(null, null, null, null), null, mImagesQuery);
+            } else {
+                mMapQuery = null;
+                mMapCursor = null;
+                mImageQuery = null;
+                mImageCursor = null;
+                mImagesQuery = null;
+                mImagesCursor = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            close(mCursor);
+            close(mBatchCursor);
+            close(mMapCursor);
+            close(mImageCursor);
+            close(mImagesCursor);
+            if (mDatabase.isOpen()) {
+                mDatabase.close();
+            }
+        }
+
+        @Nullable
+        byte[] read(int column, int row, int zoom) {
+            mQuery.bindLong(3, row);
+            mQuery.bindLong(2, column);
+            mQuery.bindLong(1, zoom);
+            mCursor.requery();
+            return mCursor.moveToPosition(0) ? mCursor.getBlob(0) : null;
+        }
+
+        @Nullable
+        byte[] readImage(long tileId) {
+            assert (mImageQuery != null) && (mImageCursor != null);
+            mImageQuery.bindLong(1, tileId);
+            mImageCursor.requery();
+            return mImageCursor.moveToPosition(0) ? mImageCursor.getBlob(0) : null;
+        }
+
+        /**
+         * Read the images of tile_ids from to to, at most a batch.
+         */
+        @NonNull
+        Boolean readImages(@NonNull long[] tileIds, int from, int to, @NonNull Consumer consumer) {
+            assert (mImagesQuery != null) && (mImagesCursor != null);
+            for (int i = 0; i < TileStores.BATCH_SIZE; i++) {
+                // Repeating a tile_id in the IN list is harmless, so a short batch is padded with its first one
+                mImagesQuery.bindLong(i + 1, tileIds[((from + i) < to) ? (from + i) : from]);
+            }
+            mImagesCursor.requery();
+            for (int i = 0; mImagesCursor.moveToPosition(i); i++) {
+                consumer.accept(mImagesCursor.getLong(0), mImagesCursor.getBlob(1));
+            }
+            return Boolean.TRUE;
+        }
+
+        long readTileId(int column, int row, int zoom) {
+            assert (mMapQuery != null) && (mMapCursor != null);
+            mMapQuery.bindLong(3, row);
+            mMapQuery.bindLong(2, column);
+            mMapQuery.bindLong(1, zoom);
+            mMapCursor.requery();
+            return mMapCursor.moveToPosition(0) ? mMapCursor.getLong(0) : NO_TILE_ID;
+        }
+
+        /**
+         * Read the tiles of keys from to to, at most a batch.
+         */
+        @NonNull
+        Boolean readTiles(@NonNull long[] keys, int from, int to, @NonNull Consumer consumer) {
+            for (int i = 0; i < TileStores.BATCH_SIZE; i++) {
+                // A short batch is padded with a key at zoom level -1, which matches no tile
+                mBatchQuery.bindLong(i + 1, ((from + i) < to) ? keys[from + i] : -1L);
+            }
+            mBatchCursor.requery();
+            for (int i = 0; mBatchCursor.moveToPosition(i); i++) {
+                consumer.accept(mBatchCursor.getLong(0), mBatchCursor.getBlob(1));
+            }
+            return Boolean.TRUE;
+        }
+
+        private static void close(@Nullable Cursor cursor) {
+            if ((cursor != null) && !cursor.isClosed()) {
+                cursor.close();
+            }
+        }
+    }
+
+    //endregion Statics
+
+    static {
+        // sqlite3ndk should be loaded first
+        System.loadLibrary("sqlite3ndk");
+        System.loadLibrary("sqlite3x");
+    }
+}
@@ -0,0 +1,232 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.database.SQLException;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteJob;
+import com.almworks.sqlite4java.SQLiteLongArray;
+import com.almworks.sqlite4java.SQLiteQueue;
+import com.almworks.sqlite4java.SQLiteStatement;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads an MBTiles database through sqlite4java, every read is a job on the single connection of a {@link SQLiteQueue}, which
+ * keeps the connection confined to its thread. The database must be a file.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class SQLite4JavaTileStore implements TileStore {
+    //region Statics
+
+    // TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB);
+    private static final String mSql = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    //endregion Statics
+
+    //region Members
+
+    @Nullable
+    private final LatLngBounds mBounds;
+
+    private final Map<String, String> mMetadata;
+
+    private final SQLiteQueue mQueue;
+
+    //endregion Members
+
+    //region Constructors
+
+    /**
+     * @param file a read-only, immutable database
+     * @throws SQLException if the database cannot be opened
+     */
+    public SQLite4JavaTileStore(@NonNull File file) {
+        mQueue = new ReadOnlyQueue(file).start();
+        try {
+            mMetadata = mQueue.execute(new MetadataJob()).get();
+        } catch (ExecutionException e) {
+            close();
+            throw new SQLException("could not open " + file, e.getCause());
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted opening " + file, e);
+        }
+        mBounds = TileStores.parseBounds(mMetadata.get("bounds"));
+    }
+
+    //endregion Constructors
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SQLite4JavaTileStore{" + "mQueue=" + mQueue + ", mSql='" + mSql + "'" + "}";
+    }
+
+    //region TileStore
+
+    /**
+     * Stops the queue once the reads already queued are done.
+     */
+    @Override
+    public void close() {
+        mQueue.stop(true);
+        try {
+            mQueue.join();
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Nullable
+    @Override
+    public LatLngBounds getBounds() {
+        return mBounds;
+    }
+
+    @Nullable
+    @Override
+    public String getMetadata(@NonNull String name) {
+        return mMetadata.get(name);
+    }
+
+    /**
+     * @return false, each read copies the blob
+     */
+    @Override
+    public boolean isDeduplicated() {
+        return false;
+    }
+
+    /**
+     * @return the encoded image, or null if there is no tile, the read failed or the store is closed
+     */
+    @Nullable
+    @Override
+    public byte[] read(int zoom, int x, int y) {
+        return mQueue.execute(new TileJob(x, y, zoom)).complete();
+    }
+
+    /**
+     * Reads all the tiles in one job, with the keys bound to an intarray virtual table that is joined to the tiles table.
+     */
+    @Override
+    public void readAll(@NonNull long[] keys, @NonNull Consumer consumer) {
+        LongSparseArray<byte[]> tiles = mQueue.execute(new BatchJob(keys)).complete();
+        if (tiles == null) {
+            return;
+        }
+        for (int i = 0; i < tiles.size(); i++) {
+            consumer.accept(tiles.keyAt(i), tiles.valueAt(i));
+        }
+    }
+
+    //endregion TileStore
+
+    //region Statics
+
+    private static final class BatchJob extends SQLiteJob<LongSparseArray<byte[]>> {
+
+        private final long[] mKeys;
+
+        BatchJob(@NonNull long[] keys) {
+            mKeys = keys;
+        }
+
+        @Override
+        protected LongSparseArray<byte[]> job(SQLiteConnection connection) throws SQLiteException {
+            LongSparseArray<byte[]> tiles = new LongSparseArray<>(mKeys.length);
+            // Cached, so the virtual table is created once and handed back to the connection by dispose
+            SQLiteLongArray array = connection.createArray();
+            try {
+                array.bind(mKeys);
+                SQLiteStatement st = connection.prepare(TileStores.batchSql(array.getName(), "value"), true);
+                try {
+                    while (st.step()) {
+                        tiles.put(st.columnLong(0), st.columnBlob(1));
+                    }
+                } finally {
+                    st.dispose();
+                }
+            } finally {
+                array.dispose();
+            }
+            return tiles;
+        }
+    }
+
+    private static final class MetadataJob extends SQLiteJob<Map<String, String>> {
+
+        @Override
+        protected Map<String, String> job(SQLiteConnection connection) throws SQLiteException {
+            @NonNls String sql = "SELECT name, value FROM metadata";
+            Map<String, String> metadata = new HashMap<>();
+            SQLiteStatement st = connection.prepare(sql);
+            try {
+                while (st.step()) {
+                    metadata.put(st.columnString(0), st.columnString(1));
+                }
+            } finally {
+                st.dispose();
+            }
+            return metadata;
+        }
+    }
+
+    private static final class ReadOnlyQueue extends SQLiteQueue {
+
+        ReadOnlyQueue(@NonNull File file) {
+            super(file);
+        }
+
+        @Override
+        protected SQLiteConnection openConnection() throws SQLiteException {
+            return new SQLiteConnection(getDatabaseFile()).openReadonly();
+        }
+    }
+
+    private static final class TileJob extends SQLiteJob<byte[]> {
+
+        private final int mX;
+
+        private final int mY;
+
+        private final int mZoom;
+
+        TileJob(int x, int y, int zoom) {
+            mX = x;
+            mY = y;
+            mZoom = zoom;
+        }
+
+        @Override
+        protected byte[] job(SQLiteConnection connection) throws SQLiteException {
+            // Cached, so the statement is prepared once and handed back to the connection by dispose
+            SQLiteStatement st = connection.prepare(mSql, true);
+            try {
+                st.bind(1, mZoom);
+                st.bind(2, mX);
+                st.bind(3, (1 << mZoom) - 1 - mY);
+                return st.step() ? st.columnBlob(0) : null;
+            } finally {
+                st.dispose();
+            }
+        }
+    }
+
+    //endregion Statics
+}
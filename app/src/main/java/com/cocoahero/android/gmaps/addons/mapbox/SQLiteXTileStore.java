@@ -0,0 +1,142 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.jetbrains.annotations.NonNls;
+import org.sqlite.database.sqlite.SQLiteDatabase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads an MBTiles database through the org.sqlite.database binding on sqliteX, which has no asset VFS, so the database must be a
+ * file.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class SQLiteXTileStore implements TileStore {
+    //region Statics
+
+    // TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB);
+    private static final String mSql = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    //endregion Statics
+
+    //region Members
+
+    @Nullable
+    private final LatLngBounds mBounds;
+
+    private final SQLiteDatabase mDatabase;
+
+    private final Map<String, String> mMetadata;
+
+    //endregion Members
+
+    //region Constructors
+
+    /**
+     * @param pathToFile the path to a read-only, immutable database
+     * @throws android.database.SQLException if the database cannot be opened
+     */
+    public SQLiteXTileStore(@NonNull String pathToFile) {
+        mDatabase = SQLiteDatabase.openDatabase(pathToFile, null, SQLiteDatabase.OPEN_READONLY);
+        mMetadata = loadMetadata(mDatabase);
+        mBounds = TileStores.parseBounds(mMetadata.get("bounds"));
+    }
+
+    //endregion Constructors
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SQLiteXTileStore{" + "mDatabase='" + mDatabase.getPath() + "'" + ", mSql='" + mSql + "'" + "}";
+    }
+
+    //region TileStore
+
+    @Override
+    public void close() {
+        mDatabase.close();
+    }
+
+    @Nullable
+    @Override
+    public LatLngBounds getBounds() {
+        return mBounds;
+    }
+
+    @Nullable
+    @Override
+    public String getMetadata(@NonNull String name) {
+        return mMetadata.get(name);
+    }
+
+    /**
+     * @return false, each read copies the blob
+     */
+    @Override
+    public boolean isDeduplicated() {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public byte[] read(int zoom, int x, int y) {
+        if (!mDatabase.isOpen()) {
+            return null;
+        }
+        String[] bindArgs = { Integer.toString(zoom), Integer.toString(x), Integer.toString((1 << zoom) - 1 - y) };
+        try (Cursor cursor = mDatabase.rawQuery(mSql, bindArgs)) {
+            return cursor.moveToPosition(0) ? cursor.getBlob(0) : null;
+        }
+    }
+
+    @Override
+    public void readAll(@NonNull long[] keys, @NonNull Consumer consumer) {
+        for (int start = 0; start < keys.length; start += TileStores.BATCH_SIZE) {
+            if (!mDatabase.isOpen()) {
+                return;
+            }
+            int count = Math.min(TileStores.BATCH_SIZE, keys.length - start);
+            String[] bindArgs = new String[count];
+            for (int i = 0; i < count; i++) {
+                bindArgs[i] = Long.toString(keys[start + i]);
+            }
+            try (Cursor cursor = mDatabase.rawQuery(TileStores.batchSql(count), bindArgs)) {
+                while (cursor.moveToNext()) {
+                    consumer.accept(cursor.getLong(0), cursor.getBlob(1));
+                }
+            }
+        }
+    }
+
+    //endregion TileStore
+
+    //region Statics
+
+    @NonNull
+    private static Map<String, String> loadMetadata(@NonNull SQLiteDatabase database) {
+        @NonNls String sql = "SELECT name, value FROM metadata";
+        Map<String, String> metadata = new HashMap<>();
+        try (Cursor cursor = database.rawQuery(sql, null)) {
+            while (cursor.moveToNext()) {
+                metadata.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return metadata;
+    }
+
+    //endregion Statics
+
+    static {
+        System.loadLibrary("sqliteX");
+    }
+}
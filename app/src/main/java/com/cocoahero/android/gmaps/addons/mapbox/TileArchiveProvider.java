@@ -0,0 +1,327 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves tiles from a flat archive written at build time from an MBTiles file by the buildTileArchive task, see tiles.gradle.
+ * <p>
+ * The archive is read through a read-only memory mapping, a lookup is a binary search over the directory and one copy of the
+ * tile data. All values are big-endian:
+ * <pre>
+ * header     int magic, int version, int minimum zoom, int maximum zoom, int entry count, int image count, int metadata count
+ * metadata   per value: short length and UTF-8 bytes of the name, then of the value, as in the MBTiles metadata table
+ * directory  per entry: long key, int run length, int image index, sorted by key
+ * offsets    image count + 1 ints, the offset of each image relative to the data section
+ * data       the images, each distinct image is stored once
+ * </pre>
+ * The key of a tile is its zoom level in the top 6 bits and the index of (x, y) along the Hilbert curve of that zoom level below,
+ * so neighbouring tiles are close together in the directory. An entry covers the run of consecutive keys that share an image, which
+ * collapses the large areas of ocean and empty land into a few entries.
+ * <p>
+ * The metadata is copied from the MBTiles, except minzoom and maxzoom which are those of the tiles in the archive.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class TileArchiveProvider implements TileProvider, TileStore {
+    //region Statics
+
+    public static final int MAGIC = 0x4D424641; // MBFA
+
+    public static final int VERSION = 2;
+
+    public static final int ZOOM_SHIFT = 58;
+
+    private static final int HEADER_SIZE = 7 * 4;
+
+    private static final int ENTRY_SIZE = 8 + 4 + 4;
+
+    // Tile dimension, in pixels.
+    private static final int TILE_DIM = 512;
+
+    private static final String TAG = "TileArchiveProvider";
+
+    //endregion Statics
+
+    //region Members
+
+    @Nullable
+    private final LatLngBounds mBounds;
+
+    private final ByteBuffer mBuffer;
+
+    private final FileChannel mChannel;
+
+    private final int mDataStart;
+
+    private final int mDirectoryStart;
+
+    private final int mEntryCount;
+
+    private final int mMaximumZoom;
+
+    // Values of the metadata of the MBTiles the archive was written from
+    private final Map<String, String> mMetadata;
+
+    private final int mMinimumZoom;
+
+    private final int mOffsetsStart;
+
+    //endregion Members
+
+    //region Constructors
+
+    public TileArchiveProvider(@NonNull File file) throws IOException {
+        this(new FileInputStream(file).getChannel(), 0L, file.length());
+    }
+
+    /**
+     * @param descriptor the archive, which must be stored uncompressed in the APK so it can be mapped
+     */
+    public TileArchiveProvider(@NonNull AssetFileDescriptor descriptor) throws IOException {
+        this(descriptor.createInputStream().getChannel(), descriptor.getStartOffset(), descriptor.getLength());
+    }
+
+    @SuppressWarnings("ChannelOpenedButNotSafelyClosed")
+    private TileArchiveProvider(@NonNull FileChannel channel, long position, long size) throws IOException {
+        mChannel = channel;
+        try {
+            mBuffer = channel.map(MapMode.READ_ONLY, position, size);
+            if ((size < HEADER_SIZE) || (mBuffer.getInt(0) != MAGIC)) {
+                throw new IOException("not a tile archive");
+            }
+            int version = mBuffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("unsupported tile archive version: " + version);
+            }
+            mMinimumZoom = mBuffer.getInt(8);
+            mMaximumZoom = mBuffer.getInt(12);
+            mEntryCount = mBuffer.getInt(16);
+            int imageCount = mBuffer.getInt(20);
+            int metadataCount = mBuffer.getInt(24);
+            int offset = HEADER_SIZE;
+            mMetadata = new HashMap<>(metadataCount);
+            for (int i = 0; i < metadataCount; i++) {
+                String key = getString(mBuffer, offset);
+                offset += 2 + (mBuffer.getShort(offset) & 0xFFFF);
+                String value = getString(mBuffer, offset);
+                offset += 2 + (mBuffer.getShort(offset) & 0xFFFF);
+                mMetadata.put(key, value);
+            }
+            mBounds = TileStores.parseBounds(mMetadata.get("bounds"));
+            mDirectoryStart = offset;
+            mOffsetsStart = mDirectoryStart + (mEntryCount * ENTRY_SIZE);
+            mDataStart = mOffsetsStart + ((imageCount + 1) * 4);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //endregion Constructors
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TileArchiveProvider{" + "mEntries=" + mEntryCount + ", mSize=" + mBuffer.capacity() + ", mMinimumZoom=" + mMinimumZoom
+                + ", mMaximumZoom=" + mMaximumZoom + "}";
+    }
+
+    //region Accessors
+
+    public float getMaximumZoom() {
+        return mMaximumZoom;
+    }
+
+    public float getMinimumZoom() {
+        return mMinimumZoom;
+    }
+
+    //endregion Accessors
+
+    //region TileProvider
+
+    @SuppressWarnings("ParameterNameDiffersFromOverriddenParameter")
+    @NonNull
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        byte[] data = read(zoom, x, y);
+        return (data != null) ? new Tile(TILE_DIM, TILE_DIM, data) : NO_TILE;
+    }
+
+    //endregion TileProvider
+
+    //region TileStore
+
+    /**
+     * Closes the underlying file, the mapping itself is released once the provider is garbage collected.
+     */
+    @Override
+    public void close() {
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            Log.w(TAG, e.toString());
+        }
+    }
+
+    @Nullable
+    @Override
+    public LatLngBounds getBounds() {
+        return mBounds;
+    }
+
+    @Nullable
+    @Override
+    public String getMetadata(@NonNull String name) {
+        switch (name) {
+            case "minzoom":
+                return Integer.toString(mMinimumZoom);
+            case "maxzoom":
+                return Integer.toString(mMaximumZoom);
+            default:
+                return mMetadata.get(name);
+        }
+    }
+
+    /**
+     * @return false, each read copies the image out of the mapping
+     */
+    @Override
+    public boolean isDeduplicated() {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public byte[] read(int zoom, int x, int y) {
+        if ((zoom < mMinimumZoom) || (zoom > mMaximumZoom)) {
+            return null;
+        }
+        int entry = find(key(x, y, zoom));
+        if (entry < 0) {
+            return null;
+        }
+        int image = mBuffer.getInt(mDirectoryStart + (entry * ENTRY_SIZE) + 12);
+        int start = mBuffer.getInt(mOffsetsStart + (image * 4));
+        int end = mBuffer.getInt(mOffsetsStart + ((image + 1) * 4));
+        byte[] data = new byte[end - start];
+        // Absolute bulk reads do not exist before Java 13, a duplicate keeps the position private to this thread
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mDataStart + start);
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Reads the tiles one by one, a lookup is cheap enough that there is nothing to batch.
+     */
+    @Override
+    public void readAll(@NonNull long[] keys, @NonNull Consumer consumer) {
+        for (long key : keys) {
+            byte[] data = read(TileCache.zoom(key), TileCache.x(key), TileCache.y(key));
+            if (data != null) {
+                consumer.accept(key, data);
+            }
+        }
+    }
+
+    //endregion TileStore
+
+    //region Instance Methods
+
+    /**
+     * @return the index of the entry whose run covers the key, or -1
+     */
+    private int find(long key) {
+        ByteBuffer buffer = mBuffer;
+        int low = 0;
+        int high = mEntryCount - 1;
+        // Find the last entry with a key less than or equal to the key
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = buffer.getLong(mDirectoryStart + (mid * ENTRY_SIZE));
+            if (value <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (high < 0) {
+            return -1;
+        }
+        int offset = mDirectoryStart + (high * ENTRY_SIZE);
+        long first = buffer.getLong(offset);
+        int run = buffer.getInt(offset + 8);
+        return ((key - first) < run) ? high : -1;
+    }
+
+    //endregion Instance Methods
+
+    //region Statics
+
+    /**
+     * @return the index of (x, y) along the Hilbert curve filling the 2^zoom by 2^zoom grid of tiles
+     */
+    @SuppressWarnings("AssignmentToMethodParameter")
+    public static long hilbert(int x, int y, int zoom) {
+        int n = 1 << zoom;
+        long d = 0L;
+        int rx;
+        int ry;
+        for (int s = n >>> 1; s > 0; s >>>= 1) {
+            rx = ((x & s) != 0) ? 1 : 0;
+            ry = ((y & s) != 0) ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @return the string of the given length prefixed UTF-8 bytes
+     */
+    @NonNull
+    private static String getString(@NonNull ByteBuffer buffer, int position) {
+        byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+        // Absolute bulk reads do not exist before Java 13
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position + 2);
+        duplicate.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static long key(int x, int y, int zoom) {
+        return ((long) zoom << ZOOM_SHIFT) | hilbert(x, y, zoom);
+    }
+
+    //endregion Statics
+}
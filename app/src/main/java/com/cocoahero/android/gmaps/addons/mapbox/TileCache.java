@@ -0,0 +1,339 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory tile cache in front of a {@link TileProvider}, keyed by the packed (zoom, x, y) of a tile.
+ * <p>
+ * Tiles are evicted least recently used first once the total size of their data exceeds the budget. Concurrent requests for a tile
+ * that is not cached yet are coalesced, so only the first one reaches the backing provider. Tiles can be loaded ahead of time with
+ * {@link #prefetch(int, int, int)}, see {@link TilePrefetcher}.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class TileCache implements TileProvider, ComponentCallbacks2 {
+    //region Statics
+
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    // Approximate size of a Tile and its cache entry, so empty tiles still count against the budget.
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final int ZOOM_SHIFT = 58;
+
+    private static final int X_SHIFT = 29;
+
+    private static final long Y_MASK = (1L << X_SHIFT) - 1L;
+
+    //endregion Statics
+
+    //region Members
+
+    private final LruCache<Long, Tile> mCache;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+
+    private final ConcurrentHashMap<Long, FutureTask<Tile>> mLoading = new ConcurrentHashMap<>();
+
+    private final int mMaxSize;
+
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    // Keys loaded by prefetch that have not been requested yet
+    private final Set<Long> mPrefetched = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private final AtomicInteger mPrefetches = new AtomicInteger();
+
+    private final AtomicInteger mPrefetchHits = new AtomicInteger();
+
+    private final TileProvider mProvider;
+
+    //endregion Members
+
+    //region Constructors
+
+    public TileCache(@NonNull TileProvider provider) {
+        this(provider, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param provider the provider tiles are loaded from
+     * @param maxSize  the budget in bytes
+     */
+    public TileCache(@NonNull TileProvider provider, int maxSize) {
+        mProvider = provider;
+        mMaxSize = maxSize;
+        mCache = new LruCache<Long, Tile>(maxSize) {
+            @Override
+            protected void entryRemoved(boolean evicted, @NonNull Long key, @NonNull Tile oldValue, @Nullable Tile newValue) {
+                if (evicted) {
+                    mPrefetched.remove(key);
+                }
+            }
+
+            @Override
+            protected int sizeOf(@NonNull Long key, @NonNull Tile value) {
+                return sizeOfTile(value);
+            }
+        };
+    }
+
+    //endregion Constructors
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TileCache{" + "mSize=" + mCache.size() + ", mMaxSize=" + mMaxSize + ", mHits=" + mHits.get() + ", mMisses="
+                + mMisses.get() + ", mEvictions=" + mCache.evictionCount() + ", mPrefetches=" + mPrefetches.get() + ", mPrefetchHits="
+                + mPrefetchHits.get() + "}";
+    }
+
+    //region Accessors
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return the budget in bytes
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return the number of tiles loaded by {@link #prefetch(int, int, int)} and {@link #prefetch(long[])}
+     */
+    public int getPrefetchCount() {
+        return mPrefetches.get();
+    }
+
+    /**
+     * @return the number of requests served from a tile loaded by {@link #prefetch(int, int, int)}
+     */
+    public int getPrefetchHitCount() {
+        return mPrefetchHits.get();
+    }
+
+    /**
+     * @return the total size in bytes of the cached tiles
+     */
+    public int getSize() {
+        return mCache.size();
+    }
+
+    //endregion Accessors
+
+    //region TileProvider
+
+    @SuppressWarnings("ParameterNameDiffersFromOverriddenParameter")
+    @Nullable
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        Long key = key(x, y, zoom);
+        Tile tile = mCache.get(key);
+        if (tile != null) {
+            mHits.incrementAndGet();
+            if (mPrefetched.remove(key)) {
+                mPrefetchHits.incrementAndGet();
+            }
+            return tile;
+        }
+        mMisses.incrementAndGet();
+        return load(key, x, y, zoom);
+    }
+
+    //endregion TileProvider
+
+    //region ComponentCallbacks2
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // The map is not visible, keep the budget for when it is shown again
+            mCache.trimToSize(mMaxSize / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Only drop tiles, the cache fills up to its budget again once memory is no longer low
+            mCache.trimToSize(mMaxSize / 8);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mMaxSize / 4);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            mCache.trimToSize(mMaxSize / 2);
+        }
+    }
+
+    //endregion ComponentCallbacks2
+
+    //region Instance Methods
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    /**
+     * Load a tile into the cache without counting it as a request.
+     *
+     * @return {@code true} if the tile was loaded, {@code false} if it was already cached or is not available
+     */
+    public boolean prefetch(int x, int y, int zoom) {
+        Long key = key(x, y, zoom);
+        if ((mCache.get(key) != null) || (load(key, x, y, zoom) == null)) {
+            return false;
+        }
+        mPrefetched.add(key);
+        mPrefetches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Load tiles into the cache without counting them as requests. If the provider is a {@link BatchTileProvider}, the tiles that
+     * are not cached are loaded together, otherwise one by one.
+     *
+     * @param keys the tiles to load, packed by {@link #key(int, int, int)}
+     * @return the number of tiles loaded
+     */
+    public int prefetch(@NonNull long[] keys) {
+        if (!(mProvider instanceof BatchTileProvider)) {
+            int count = 0;
+            for (long key : keys) {
+                if (prefetch(x(key), y(key), zoom(key))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        long[] missing = new long[keys.length];
+        int length = 0;
+        for (long key : keys) {
+            // Tiles being loaded by a request are left to it
+            if ((mCache.get(key) == null) && !mLoading.containsKey(key)) {
+                missing[length++] = key;
+            }
+        }
+        if (length == 0) {
+            return 0;
+        }
+        int before = mPrefetches.get();
+        ((BatchTileProvider) mProvider).getTiles(Arrays.copyOf(missing, length), (key, tile) -> {
+            mCache.put(key, tile);
+            mPrefetched.add(key);
+            mPrefetches.incrementAndGet();
+        });
+        return mPrefetches.get() - before;
+    }
+
+    @Nullable
+    private Tile load(Long key, int x, int y, int zoom) {
+        FutureTask<Tile> task = new FutureTask<>(() -> mProvider.getTile(x, y, zoom));
+        FutureTask<Tile> loading = mLoading.putIfAbsent(key, task);
+        if (loading == null) {
+            try {
+                task.run();
+                Tile tile = getResult(task);
+                // A null tile is not available at this time, so it is not cached and the next request tries again
+                if (tile != null) {
+                    mCache.put(key, tile);
+                }
+                return tile;
+            } finally {
+                mLoading.remove(key, task);
+            }
+        }
+        return getResult(loading);
+    }
+
+    //endregion Instance Methods
+
+    //region Statics
+
+    /**
+     * Pack tile coordinates and zoom into a cache key, the coordinates must be less than 2^29.
+     */
+    public static long key(int x, int y, int zoom) {
+        return ((long) zoom << ZOOM_SHIFT) | ((long) x << X_SHIFT) | (y & Y_MASK);
+    }
+
+    public static int x(long key) {
+        return (int) ((key >>> X_SHIFT) & Y_MASK);
+    }
+
+    public static int y(long key) {
+        return (int) (key & Y_MASK);
+    }
+
+    public static int zoom(long key) {
+        return (int) (key >>> ZOOM_SHIFT);
+    }
+
+    @SuppressWarnings({ "ThrowInsideCatchBlockWhichIgnoresCaughtException", "ProhibitedExceptionThrown" })
+    @Nullable
+    private static Tile getResult(@NonNull FutureTask<Tile> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException ignored) {
+                    // Another thread is loading the tile, wait for it rather than fail the request
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int sizeOfTile(@NonNull Tile tile) {
+        return (tile.data != null) ? (tile.data.length + ENTRY_OVERHEAD) : ENTRY_OVERHEAD;
+    }
+
+    //endregion Statics
+}
@@ -0,0 +1,221 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the tiles around the visible region into a {@link TileCache} on a low priority background thread: first the ring of tiles
+ * surrounding the viewport, then the viewport at the next lower and the next higher zoom level.
+ * <p>
+ * Each call to {@link #prefetch(LatLngBounds, float)} or {@link #warmUp(LatLngBounds, float)} supersedes the previous one, tiles of
+ * a viewport the camera has already left are not loaded. The tiles of each zoom level are loaded nearest the centre of the viewport
+ * first, in batches of {@value #BATCH_SIZE} tiles, see {@link TileCache#prefetch(long[])}. A superseded prefetch stops before its
+ * next batch.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class TilePrefetcher implements Closeable {
+    //region Statics
+
+    private static final int BATCH_SIZE = 16;
+
+    // Upper bound of tiles loaded per zoom level, the next higher zoom level has four times the tiles of the viewport.
+    private static final int MAX_TILES = 64;
+
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    //endregion Statics
+
+    //region Members
+
+    private final TileCache mCache;
+
+    private final ExecutorService mExecutor;
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private final int mMaximumZoom;
+
+    private final int mMinimumZoom;
+
+    @Nullable
+    private Future<?> mFuture;
+
+    //endregion Members
+
+    //region Constructors
+
+    /**
+     * @param cache       the cache tiles are loaded into
+     * @param minimumZoom the lowest zoom level tiles are available at
+     * @param maximumZoom the highest zoom level tiles are available at
+     */
+    public TilePrefetcher(@NonNull TileCache cache, int minimumZoom, int maximumZoom) {
+        mCache = cache;
+        mMinimumZoom = minimumZoom;
+        mMaximumZoom = maximumZoom;
+        mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TilePrefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    //endregion Constructors
+
+    //region Closeable
+
+    @Override
+    public void close() {
+        mGeneration.incrementAndGet();
+        mExecutor.shutdownNow();
+    }
+
+    //endregion Closeable
+
+    //region Instance Methods
+
+    /**
+     * Prefetch the tiles around the visible region, cancelling any prefetch still running for a previous region.
+     *
+     * @param bounds the visible region
+     * @param zoom   the camera zoom level
+     */
+    @MainThread
+    public void prefetch(@NonNull LatLngBounds bounds, float zoom) {
+        submit(bounds, zoom, false);
+    }
+
+    /**
+     * Load the tiles of the visible region before the map requests them, then the tiles around it as
+     * {@link #prefetch(LatLngBounds, float)} does.
+     *
+     * @param bounds the visible region
+     * @param zoom   the camera zoom level
+     */
+    @MainThread
+    public void warmUp(@NonNull LatLngBounds bounds, float zoom) {
+        submit(bounds, zoom, true);
+    }
+
+    /**
+     * @param range   the tiles to load as {minX, minY, maxX, maxY}, x wraps around the antimeridian
+     * @param exclude the tiles to skip, or null
+     * @return false if the prefetch was superseded
+     */
+    private boolean load(int generation, int[] range, @Nullable int[] exclude, int zoom) {
+        int size = 1 << zoom;
+        // At low zoom levels the range can be wider than the world, its columns would only repeat
+        int minX = range[0];
+        int maxX = Math.min(range[2], (minX + size) - 1);
+        int minY = Math.max(range[1], 0);
+        int maxY = Math.min(range[3], size - 1);
+        if ((maxX < minX) || (maxY < minY)) {
+            return true;
+        }
+        long[] tiles = new long[((maxX - minX) + 1) * ((maxY - minY) + 1)];
+        // Sorts by the squared distance from the centre of the range, in half tiles, then by position
+        long[] order = new long[tiles.length];
+        int length = 0;
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                if ((exclude != null) && (x >= exclude[0]) && (x <= exclude[2]) && (y >= exclude[1]) && (y <= exclude[3])) {
+                    continue;
+                }
+                long dx = (2L * x) - range[0] - range[2];
+                long dy = (2L * y) - range[1] - range[3];
+                order[length] = ((dx * dx + dy * dy) << 32) | length;
+                tiles[length++] = TileCache.key(((x % size) + size) % size, y, zoom);
+            }
+        }
+        Arrays.sort(order, 0, length);
+        long[] keys = new long[Math.min(length, MAX_TILES)];
+        Set<Long> seen = new HashSet<>(keys.length * 2);
+        int count = 0;
+        for (int i = 0; (i < length) && (count < keys.length); i++) {
+            long key = tiles[(int) order[i]];
+            if (seen.add(key)) {
+                keys[count++] = key;
+            }
+        }
+        for (int from = 0; from < count; from += BATCH_SIZE) {
+            if (mGeneration.get() != generation) {
+                return false;
+            }
+            mCache.prefetch(Arrays.copyOfRange(keys, from, Math.min(from + BATCH_SIZE, count)));
+        }
+        return mGeneration.get() == generation;
+    }
+
+    private void submit(@NonNull LatLngBounds bounds, float zoom, boolean viewport) {
+        int generation = mGeneration.incrementAndGet();
+        if (mFuture != null) {
+            mFuture.cancel(false);
+        }
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        int z = Math.max(mMinimumZoom, Math.min(mMaximumZoom, (int) zoom));
+        mFuture = mExecutor.submit(() -> {
+            int[] range = range(bounds, z);
+            // Once the map is showing, it requests the viewport itself, only load the ring around it
+            int[] ring = { range[0] - 1, range[1] - 1, range[2] + 1, range[3] + 1 };
+            if (!load(generation, ring, viewport ? null : range, z)) {
+                return;
+            }
+            if ((z > mMinimumZoom) && !load(generation, range(bounds, z - 1), null, z - 1)) {
+                return;
+            }
+            if (z < mMaximumZoom) {
+                load(generation, range(bounds, z + 1), null, z + 1);
+            }
+        });
+    }
+
+    //endregion Instance Methods
+
+    //region Statics
+
+    /**
+     * @return the tiles covering the bounds at the zoom level as {minX, minY, maxX, maxY}
+     */
+    @NonNull
+    private static int[] range(@NonNull LatLngBounds bounds, int zoom) {
+        int size = 1 << zoom;
+        int minX = tileX(bounds.southwest.longitude, size);
+        int maxX = tileX(bounds.northeast.longitude, size);
+        if (maxX < minX) {
+            // The bounds cross the antimeridian
+            maxX += size;
+        }
+        return new int[]{ minX, tileY(bounds.northeast.latitude, size), maxX, tileY(bounds.southwest.latitude, size) };
+    }
+
+    private static int tileX(double longitude, int size) {
+        int x = (int) Math.floor(((longitude + 180.0) / 360.0) * size);
+        return Math.max(0, Math.min(size - 1, x));
+    }
+
+    private static int tileY(double latitude, int size) {
+        double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double y = (1.0 - (Math.log(Math.tan(radians) + (1.0 / Math.cos(radians))) / Math.PI)) / 2.0;
+        return Math.max(0, Math.min(size - 1, (int) Math.floor(y * size)));
+    }
+
+    //endregion Statics
+}
@@ -0,0 +1,65 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.io.Closeable;
+
+/**
+ * A read-only source of tile images, {@link MapBoxOfflineTileProvider} serves the tiles of a store to the map. Implementations
+ * must be safe to read from several threads at once.
+ *
+ * @author 1951FDG
+ * @see TileStores
+ */
+
+public interface TileStore extends Closeable {
+
+    /**
+     * Closes the store, later reads return null.
+     */
+    @Override
+    void close();
+
+    /**
+     * @return the geographic bounds of the tiles, or null if they could not be determined
+     */
+    @Nullable
+    LatLngBounds getBounds();
+
+    /**
+     * @param name the MBTiles metadata name, such as minzoom, maxzoom or attribution
+     * @return the value, or null if the store has no such value
+     */
+    @Nullable
+    String getMetadata(@NonNull String name);
+
+    /**
+     * @return true if the tiles that reference the same image are read as the same array, which must then not be modified
+     */
+    boolean isDeduplicated();
+
+    /**
+     * @param zoom the zoom level
+     * @param x    the column
+     * @param y    the row, counting from the north
+     * @return the encoded image, or null if there is no tile
+     */
+    @Nullable
+    byte[] read(int zoom, int x, int y);
+
+    /**
+     * Read many tiles at once, in as few queries as the store can. Tiles that are not in the store are skipped.
+     *
+     * @param keys     the tiles to read, packed by {@link TileCache#key(int, int, int)} with rows counting from the north
+     * @param consumer called with each tile read, on the calling thread
+     */
+    void readAll(@NonNull long[] keys, @NonNull Consumer consumer);
+
+    interface Consumer {
+
+        void accept(long key, @NonNull byte[] data);
+    }
+}
@@ -0,0 +1,212 @@
+package com.cocoahero.android.gmaps.addons.mapbox;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.database.SQLException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Opens the {@link TileStore} of a bundled tile set by backend name, so the backend can be picked by configuration, for instance a
+ * string resource qualified by device.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public final class TileStores {
+    //region Statics
+
+    /**
+     * requery on sqlite3x, reading the MBTiles straight from the APK, see {@link RequeryTileStore}.
+     */
+    public static final String REQUERY = "requery";
+
+    /**
+     * requery on sqlite3x, reading from a memory backed copy of the MBTiles once it is made.
+     */
+    public static final String REQUERY_MEMORY = "requery-memory";
+
+    /**
+     * org.sqlite.database on sqliteX, reading a copy of the MBTiles in the files directory, see {@link SQLiteXTileStore}. Its native
+     * library is only packaged when the app is built with -PbenchmarkBindings.
+     */
+    public static final String SQLITEX = "sqliteX";
+
+    /**
+     * sqlite4java through a queue, reading a copy of the MBTiles in the files directory, see {@link SQLite4JavaTileStore}. Its
+     * native library is only packaged when the app is built with -PbenchmarkBindings.
+     */
+    public static final String SQLITE4JAVA = "sqlite4java";
+
+    /**
+     * The flat archive written at build time, see {@link TileArchiveProvider}.
+     */
+    public static final String ARCHIVE = "archive";
+
+    /**
+     * Largest number of tiles read by one statement of a batch, well below the limit of 999 bound parameters.
+     */
+    public static final int BATCH_SIZE = 64;
+
+    private static final String MBTILES = ".mbtiles";
+
+    private static final String TILES = ".tiles";
+
+    private static final String TAG = "TileStores";
+
+    //endregion Statics
+
+    //region Constructors
+
+    private TileStores() {
+    }
+
+    //endregion Constructors
+
+    //region Statics
+
+    /**
+     * Open a bundled tile set. If the backend cannot be opened, for instance because its native library is not packaged, the
+     * tile set is opened with {@link #REQUERY} instead.
+     *
+     * @param context the context of the assets
+     * @param backend one of {@link #REQUERY}, {@link #REQUERY_MEMORY}, {@link #SQLITEX}, {@link #SQLITE4JAVA} or {@link #ARCHIVE}
+     * @param name    the name of the tile set, the assets are name.mbtiles and, for {@link #ARCHIVE}, name.tiles
+     * @return the newly opened store
+     * @throws IllegalArgumentException if the backend is unknown
+     */
+    @WorkerThread
+    @NonNull
+    public static TileStore open(@NonNull Context context, @NonNull String backend, @NonNull String name) {
+        if (!REQUERY.equals(backend)) {
+            try {
+                return openBackend(context, backend, name);
+            } catch (IOException | LinkageError | SQLException e) {
+                Log.w(TAG, "Could not open " + name + " with " + backend + ", falling back to " + REQUERY, e);
+            }
+        }
+        return new RequeryTileStore(uri(name));
+    }
+
+    /**
+     * @param table  the table of keys packed by {@link TileCache#key(int, int, int)}, such as an intarray
+     * @param column the column of the keys
+     * @return the statement that selects the key and tile_data of each key found in the tiles table
+     */
+    @NonNls
+    @NonNull
+    public static String batchSql(@NonNull String table, @NonNull String column) {
+        // The keys are the outer loop, so each one is a lookup on the unique index of the tiles table
+        return "SELECT " + column + ", tile_data FROM " + table + " CROSS JOIN tiles ON tiles.zoom_level = (" + column + " >> 58)"
+                + " AND tiles.tile_column = ((" + column + " >> 29) & 536870911)" + " AND tiles.tile_row = ((1 << (" + column
+                + " >> 58)) - 1 - (" + column + " & 536870911))";
+    }
+
+    /**
+     * @param count the number of keys
+     * @return {@link #batchSql(String, String)} over count bound keys
+     */
+    @NonNls
+    @NonNull
+    public static String batchSql(int count) {
+        StringBuilder sql = new StringBuilder("WITH keys(key) AS (VALUES ");
+        for (int i = 0; i < count; i++) {
+            sql.append((i == 0) ? "(?)" : ", (?)");
+        }
+        return sql.append(") ").append(batchSql("keys", "key")).toString();
+    }
+
+    /**
+     * @param value the MBTiles bounds metadata, "left,bottom,right,top" in degrees
+     * @return the bounds, or null if there are none
+     */
+    @SuppressWarnings({ "StandardVariableNames", "DynamicRegexReplaceableByCompiledPattern" })
+    @Nullable
+    public static LatLngBounds parseBounds(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(",\\s*");
+        double w = Double.parseDouble(parts[0]);
+        double s = Double.parseDouble(parts[1]);
+        double e = Double.parseDouble(parts[2]);
+        double n = Double.parseDouble(parts[3]);
+        LatLng sw = new LatLng(s, w);
+        LatLng ne = new LatLng(n, e);
+        return new LatLngBounds(sw, ne);
+    }
+
+    /**
+     * Copy an asset to the files directory, unless a copy of the same length is already there.
+     */
+    @NonNull
+    private static File copyAsset(@NonNull Context context, @NonNull String asset) throws IOException {
+        AssetManager assets = context.getAssets();
+        File file = new File(context.getNoBackupFilesDir(), asset);
+        long length;
+        try (AssetFileDescriptor descriptor = assets.openFd(asset)) {
+            length = descriptor.getLength();
+        }
+        if (file.length() == length) {
+            return file;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (InputStream in = assets.open(asset); OutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("could not rename " + temp);
+        }
+        return file;
+    }
+
+    @NonNull
+    private static TileStore openBackend(@NonNull Context context, @NonNull String backend, @NonNull String name) throws IOException {
+        switch (backend) {
+            case REQUERY:
+                return new RequeryTileStore(uri(name));
+            case REQUERY_MEMORY:
+                return new RequeryTileStore(null, uri(name));
+            case SQLITEX:
+                return new SQLiteXTileStore(copyAsset(context, name + MBTILES).getPath());
+            case SQLITE4JAVA:
+                return new SQLite4JavaTileStore(copyAsset(context, name + MBTILES));
+            case ARCHIVE:
+                // Closing the archive closes the descriptor
+                return new TileArchiveProvider(context.getAssets().openFd(name + TILES));
+            default:
+                throw new IllegalArgumentException("unknown tile store: " + backend);
+        }
+    }
+
+    /**
+     * @return the URI of the MBTiles asset through the ndk-asset VFS
+     */
+    @NonNls
+    @NonNull
+    private static String uri(@NonNull String name) {
+        return "file:" + name + MBTILES + "?vfs=ndk-asset&immutable=1&mode=ro";
+    }
+
+    //endregion Statics
+}
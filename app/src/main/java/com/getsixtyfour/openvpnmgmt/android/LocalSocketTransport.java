@@ -0,0 +1,78 @@
+package com.getsixtyfour.openvpnmgmt.android;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.net.LocalSocketAddress.Namespace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.getsixtyfour.openvpnmgmt.net.Transport;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connects to a management interface started with {@code --management /path/socket unix}, an address starting with {@code @}
+ * refers to the Linux abstract namespace instead of the filesystem.
+ *
+ * @author 1951FDG
+ */
+
+public final class LocalSocketTransport implements Transport {
+
+    @NonNls
+    public static final String SCHEME = "unix";
+
+    private static final char ABSTRACT_PREFIX = '@';
+
+    private final LocalSocket mSocket;
+
+    @SuppressWarnings("IOResourceOpenedButNotSafelyClosed")
+    public LocalSocketTransport(@NonNull String address) throws IOException {
+        LocalSocketAddress endpoint;
+        if ((address.length() > 1) && (address.charAt(0) == ABSTRACT_PREFIX)) {
+            endpoint = new LocalSocketAddress(address.substring(1), Namespace.ABSTRACT);
+        } else {
+            endpoint = new LocalSocketAddress(address, Namespace.FILESYSTEM);
+        }
+        mSocket = new LocalSocket();
+        try {
+            mSocket.connect(endpoint);
+        } catch (IOException e) {
+            mSocket.close();
+            throw e;
+        }
+    }
+
+    @NonNull
+    @SuppressWarnings("unused")
+    public static Transport open(@NonNull String address, @Nullable Integer port, boolean keepAlive) throws IOException {
+        return new LocalSocketTransport(address);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    @NonNull
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @NonNull
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mSocket.isConnected() && !mSocket.isClosed();
+    }
+}
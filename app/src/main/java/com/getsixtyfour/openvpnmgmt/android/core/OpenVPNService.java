@@ -25,9 +25,11 @@ import androidx.core.app.NotificationCompat.Builder;
 import androidx.core.app.NotificationManagerCompat;
 import androidx.core.app.ServiceCompat;
 
+import com.getsixtyfour.openvpnmgmt.android.LocalSocketTransport;
 import com.getsixtyfour.openvpnmgmt.android.activities.DisconnectVPN;
 import com.getsixtyfour.openvpnmgmt.android.constant.IntentConstants;
 import com.getsixtyfour.openvpnmgmt.core.ConnectionStatus;
+import com.getsixtyfour.openvpnmgmt.core.LogFileSink;
 import com.getsixtyfour.openvpnmgmt.core.LogLevel;
 import com.getsixtyfour.openvpnmgmt.core.VpnStatus;
 import com.getsixtyfour.openvpnmgmt.listeners.ByteCountManager.ByteCountListener;
@@ -38,10 +40,12 @@ import com.getsixtyfour.openvpnmgmt.listeners.StateManager.StateListener;
 import com.getsixtyfour.openvpnmgmt.net.Connection;
 import com.getsixtyfour.openvpnmgmt.net.ConnectionListener;
 import com.getsixtyfour.openvpnmgmt.net.ManagementConnection;
+import com.getsixtyfour.openvpnmgmt.net.SessionJournal;
 import com.getsixtyfour.openvpnmgmt.utils.StringUtils;
 
 import org.jetbrains.annotations.NonNls;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Locale;
 
@@ -62,9 +66,16 @@ public final class OpenVPNService extends Service
     @NonNls
     public static final String EXTRA_HOST = "com.getsixtyfour.openvpnmgmt.android.extra.HOST";
 
+    // Have OpenVPN itself drop the log lines no listener is subscribed to, instead of sending them over the socket
+    @NonNls
+    public static final String EXTRA_LOG_PUSHDOWN = "com.getsixtyfour.openvpnmgmt.android.extra.LOG_PUSHDOWN";
+
     @NonNls
     public static final String EXTRA_PORT = "com.getsixtyfour.openvpnmgmt.android.extra.PORT";
 
+    @NonNls
+    public static final String EXTRA_RECORD_SESSION = "com.getsixtyfour.openvpnmgmt.android.extra.RECORD_SESSION";
+
     @NonNls
     public static final String NOTIFICATION_CHANNEL_BG_ID = "openvpn_bg";
 
@@ -85,6 +96,14 @@ public final class OpenVPNService extends Service
 
     private static final String THREAD_NAME = "OpenVPNManagementThread";
 
+    private static final String LOG_DIRECTORY = "logs";
+
+    private static final String LOG_PREFIX = "openvpn";
+
+    private static final String JOURNAL_PREFIX = "session-";
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+
     private final IBinder mBinder = new IOpenVPNServiceInternal.Stub() {
         @Override
         public boolean stopVPN(boolean replaceConnection) {
@@ -94,6 +113,10 @@ public final class OpenVPNService extends Service
 
     private long mConnectTime;
 
+    private SessionJournal mSessionJournal;
+
+    private LogFileSink mLogFileSink;
+
     private boolean mDisplayByteCount = false;
 
     private boolean mNotificationAlwaysVisible = false;
@@ -112,9 +135,16 @@ public final class OpenVPNService extends Service
         {
             Connection connection = ManagementConnection.getInstance();
             connection.addByteCountListener(this);
-            connection.addLogListener(this);
+            connection.addLogListener(this, getLoggableLevel());
             connection.addStateListener(this);
             connection.setConnectionListener(this);
+            connection.registerTransport(LocalSocketTransport.SCHEME, LocalSocketTransport::open);
+        }
+        // Persist log lines for field debugging, the sink writes on its own thread so the management thread never blocks on disk
+        {
+            mLogFileSink = new LogFileSink(new File(getFilesDir(), LOG_DIRECTORY), LOG_PREFIX);
+            Connection connection = ManagementConnection.getInstance();
+            connection.addLogListener(mLogFileSink, getLoggableLevel());
         }
     }
 
@@ -135,6 +165,15 @@ public final class OpenVPNService extends Service
         String host = StringUtils.defaultIfBlank(intent.getStringExtra(EXTRA_HOST), DEFAULT_REMOTE_SERVER);
         int port = intent.getIntExtra(EXTRA_PORT, DEFAULT_REMOTE_PORT);
 
+        {
+            Connection connection = ManagementConnection.getInstance();
+            connection.setLogPushdown(intent.getBooleanExtra(EXTRA_LOG_PUSHDOWN, false));
+        }
+
+        if (intent.getBooleanExtra(EXTRA_RECORD_SESSION, false) && (mSessionJournal == null)) {
+            startSessionJournal();
+        }
+
         // Always show notification here to avoid problem with startForeground timeout
         {
             String text = getString(R.string.vpn_launch_title);
@@ -176,6 +215,22 @@ public final class OpenVPNService extends Service
             connection.removeStateListener(this);
             connection.setConnectionListener(null);
         }
+        {
+            Connection connection = ManagementConnection.getInstance();
+            connection.removeLogListener(mLogFileSink);
+            // The writer thread finishes the file and logs the number of dropped lines, do not wait for it here
+            mLogFileSink.close();
+        }
+        if (mSessionJournal != null) {
+            Connection connection = ManagementConnection.getInstance();
+            connection.setSessionJournal(null);
+            try {
+                mSessionJournal.close();
+            } catch (IOException e) {
+                Log.e(TAG, e.toString());
+            }
+            mSessionJournal = null;
+        }
     }
 
     @NonNull
@@ -388,6 +443,21 @@ public final class OpenVPNService extends Service
         startForeground(notificationId, notification);
     }
 
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void startSessionJournal() {
+        File directory = new File(getFilesDir(), LOG_DIRECTORY);
+        directory.mkdirs();
+        File file = new File(directory, JOURNAL_PREFIX + System.currentTimeMillis() + JOURNAL_SUFFIX);
+        try {
+            mSessionJournal = new SessionJournal(file);
+            Connection connection = ManagementConnection.getInstance();
+            connection.setSessionJournal(mSessionJournal);
+            Log.i(TAG, "Recording session to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+        }
+    }
+
     @SuppressWarnings("MethodWithMultipleReturnPoints")
     private static int getIconByConnectionStatus(ConnectionStatus level) {
         switch (level) {
@@ -441,6 +511,23 @@ public final class OpenVPNService extends Service
         }
     }
 
+    /**
+     * Lines above the platform log level are discarded in onLog anyway, so subscribe to just the levels that are loggable
+     */
+    @SuppressWarnings("MethodWithMultipleReturnPoints")
+    private static LogLevel getLoggableLevel() {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            return LogLevel.DEBUG;
+        }
+        if (Log.isLoggable(TAG, Log.INFO)) {
+            return LogLevel.INFO;
+        }
+        if (Log.isLoggable(TAG, Log.WARN)) {
+            return LogLevel.WARNING;
+        }
+        return LogLevel.ERROR;
+    }
+
     @SuppressWarnings({ "OverlyComplexMethod", "MagicNumber", "ImplicitNumericConversion" })
     private static String humanReadableByteCount(Resources res, long bytes, boolean speed) {
         float unit = speed ? 1000.0F : 1024.0F;
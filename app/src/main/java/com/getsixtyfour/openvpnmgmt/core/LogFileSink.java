@@ -0,0 +1,448 @@
+package com.getsixtyfour.openvpnmgmt.core;
+
+import com.getsixtyfour.openvpnmgmt.listeners.LogManager.Log;
+import com.getsixtyfour.openvpnmgmt.listeners.LogManager.LogListener;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes log lines to size and time rotated files on a single background thread, closed segments are gzipped in the background.
+ * <p>
+ * Producers only append to a lock-free queue, which is bounded, lines offered while the queue is full are dropped and counted.
+ * {@link #close()} does not wait for the writer, which writes what is queued, closes the file and logs the number of dropped lines
+ * on its own thread, see {@link #awaitTermination(long, TimeUnit)}.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "ClassWithTooManyFields", "OverlyComplexClass" })
+public final class LogFileSink implements LogListener, Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final long DEFAULT_MAX_FILE_AGE = TimeUnit.DAYS.toMillis(1L);
+
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024L * 1024L;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogFileSink.class);
+
+    @NonNls
+    private static final String ACTIVE_SUFFIX = ".log";
+
+    @NonNls
+    private static final String ARCHIVE_SUFFIX = ".log.gz";
+
+    @NonNls
+    private static final String TEMP_SUFFIX = ".log.gz.tmp";
+
+    @NonNls
+    private static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    private static final char NO_LEVEL = '-';
+
+    private static final class Entry {
+
+        private final long mTime;
+
+        private final char mLevel;
+
+        private final String mMessage;
+
+        private Entry(long time, char level, String message) {
+            mTime = time;
+            mLevel = level;
+            mMessage = message;
+        }
+    }
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+
+    private final int mCapacity;
+
+    private final ExecutorService mCompressor;
+
+    private final Date mDate = new Date();
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat(DATE_PATTERN, Locale.ROOT);
+
+    private final File mDirectory;
+
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final StringBuilder mLine = new StringBuilder(256);
+
+    private final long mMaxFileAge;
+
+    private final int mMaxFiles;
+
+    private final long mMaxFileSize;
+
+    private final String mPrefix;
+
+    private final Queue<Entry> mQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger mSize = new AtomicInteger();
+
+    private final Thread mWriter;
+
+    private FileChannel mChannel;
+
+    private volatile boolean mClosed = false;
+
+    private long mFileOpened;
+
+    private long mFileSize;
+
+    // Lines encoded into the buffer since it was last written to the file
+    private int mPending;
+
+    public LogFileSink(@NotNull File directory, @NotNull String prefix) {
+        this(directory, prefix, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILE_AGE, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param directory   the directory the log files are written to
+     * @param prefix      the file name prefix, the active file is {@code prefix.log}, closed segments are {@code prefix-millis.log.gz}
+     * @param capacity    the maximum number of lines waiting to be written, further lines are dropped
+     * @param maxFileSize the size in bytes after which the active file is rotated
+     * @param maxFileAge  the age in milliseconds after which the active file is rotated
+     * @param maxFiles    the number of closed segments to keep
+     */
+    @SuppressWarnings("ConstructorWithTooManyParameters")
+    public LogFileSink(@NotNull File directory, @NotNull String prefix, int capacity, long maxFileSize, long maxFileAge, int maxFiles) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mDirectory = directory;
+        mPrefix = prefix;
+        mCapacity = capacity;
+        mMaxFileSize = maxFileSize;
+        mMaxFileAge = maxFileAge;
+        mMaxFiles = maxFiles;
+        mCompressor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LogFileSinkCompressor-" + prefix);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        mWriter = new Thread(this::loop, "LogFileSink-" + prefix);
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Wait for the writer to finish writing the lines queued before {@link #close()}.
+     *
+     * @return true if the writer finished, false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        long millis = unit.toMillis(timeout);
+        if (millis > 0L) {
+            mWriter.join(millis);
+        }
+        return !mWriter.isAlive();
+    }
+
+    /**
+     * Stop accepting lines, the writer thread writes those still queued and closes the file without the caller waiting for it.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        LockSupport.unpark(mWriter);
+    }
+
+    /**
+     * @return the number of lines dropped because the queue was full or the file could not be written
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    public void onLog(@NotNull Log log) {
+        offer(log.getLevel().name().charAt(0), log.getMessage());
+    }
+
+    public boolean write(@NotNull CharSequence line) {
+        return offer(NO_LEVEL, line.toString());
+    }
+
+    private boolean offer(char level, String message) {
+        if (mClosed) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        int size = mSize.incrementAndGet();
+        if (size > mCapacity) {
+            mSize.decrementAndGet();
+            mDropped.incrementAndGet();
+            return false;
+        }
+        mQueue.offer(new Entry(System.currentTimeMillis(), level, message));
+        // The writer wakes up on its own every flush interval, only hurry it along when the queue is filling up
+        if (size == (mCapacity >>> 1)) {
+            LockSupport.unpark(mWriter);
+        }
+        return true;
+    }
+
+    private void loop() {
+        compressAll();
+        while (true) {
+            boolean closed = mClosed;
+            try {
+                drain();
+                flush();
+                if (closed) {
+                    break;
+                }
+                if (shouldRotate()) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Could not write log file", e);
+                closeChannel();
+                if (closed) {
+                    break;
+                }
+            }
+            LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+        }
+        closeChannel();
+        // Lines offered while the sink was closing
+        while (mQueue.poll() != null) {
+            mSize.decrementAndGet();
+            mDropped.incrementAndGet();
+        }
+        mCompressor.shutdown();
+        long dropped = mDropped.get();
+        if (dropped > 0L) {
+            LOGGER.warn("Dropped {} log lines", dropped);
+        }
+    }
+
+    private void drain() throws IOException {
+        Entry entry;
+        while ((entry = mQueue.poll()) != null) {
+            mSize.decrementAndGet();
+            if ((mChannel == null) && !open()) {
+                mDropped.incrementAndGet();
+                continue;
+            }
+            encode(entry);
+        }
+    }
+
+    private void encode(Entry entry) throws IOException {
+        mPending++;
+        StringBuilder line = mLine;
+        line.setLength(0);
+        mDate.setTime(entry.mTime);
+        line.append(mDateFormat.format(mDate)).append(' ').append(entry.mLevel).append(' ').append(entry.mMessage).append('\n');
+        CharBuffer in = CharBuffer.wrap(line);
+        CharsetEncoder encoder = mEncoder;
+        while (encoder.encode(in, mBuffer, true).isOverflow()) {
+            flush();
+        }
+        CoderResult result;
+        do {
+            result = encoder.flush(mBuffer);
+            if (result.isOverflow()) {
+                flush();
+            }
+        } while (result.isOverflow());
+        encoder.reset();
+    }
+
+    private void flush() throws IOException {
+        ByteBuffer buffer = mBuffer;
+        if ((mChannel == null) || (buffer.position() == 0)) {
+            buffer.clear();
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            mFileSize += mChannel.write(buffer);
+        }
+        buffer.clear();
+        mPending = 0;
+    }
+
+    @SuppressWarnings({ "ResultOfMethodCallIgnored", "IOResourceOpenedButNotSafelyClosed" })
+    private boolean open() {
+        if (!mDirectory.isDirectory()) {
+            mDirectory.mkdirs();
+        }
+        File file = getActiveFile();
+        try {
+            mChannel = new FileOutputStream(file, true).getChannel();
+        } catch (IOException e) {
+            LOGGER.error("Could not open log file", e);
+            return false;
+        }
+        mFileSize = file.length();
+        // A file that is reopened keeps its age, so that a failed write or a restart does not postpone its rotation
+        if (mFileSize == 0L) {
+            mFileOpened = System.currentTimeMillis();
+        } else if (mFileOpened == 0L) {
+            mFileOpened = getFirstLineTime(file);
+        }
+        return true;
+    }
+
+    /**
+     * @return the time of the first line of the file, or its last modified time if the first line has no readable time
+     */
+    @SuppressWarnings("NestedAssignment")
+    private long getFirstLineTime(File file) {
+        byte[] bytes = new byte[DATE_PATTERN.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int count;
+            while ((offset < bytes.length) && ((count = in.read(bytes, offset, bytes.length - offset)) != -1)) {
+                offset += count;
+            }
+            if (offset == bytes.length) {
+                return mDateFormat.parse(new String(bytes, StandardCharsets.US_ASCII)).getTime();
+            }
+        } catch (IOException | ParseException e) {
+            LOGGER.warn(e.toString());
+        }
+        return file.lastModified();
+    }
+
+    private boolean shouldRotate() {
+        return (mChannel != null) && (mFileSize > 0L) && ((mFileSize >= mMaxFileSize) || (
+                (System.currentTimeMillis() - mFileOpened) >= mMaxFileAge));
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void rotate() {
+        closeChannel();
+        File segment = new File(mDirectory, mPrefix + '-' + System.currentTimeMillis() + ACTIVE_SUFFIX);
+        if (getActiveFile().renameTo(segment)) {
+            mCompressor.execute(() -> {
+                compress(segment);
+                prune();
+            });
+        }
+    }
+
+    private void closeChannel() {
+        FileChannel channel = mChannel;
+        mChannel = null;
+        mBuffer.clear();
+        // Lines that were buffered but could not be written are lost
+        mDropped.addAndGet(mPending);
+        mPending = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Compress segments left over from a previous run that was killed before its compressor finished
+     */
+    private void compressAll() {
+        File[] files = listFiles(ACTIVE_SUFFIX);
+        mCompressor.execute(() -> {
+            for (File file : files) {
+                compress(file);
+            }
+            prune();
+        });
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void prune() {
+        // Segments are only compressed on this thread, so a temporary archive is left over from a compression that was killed
+        for (File file : listFiles(TEMP_SUFFIX)) {
+            file.delete();
+        }
+        File[] files = listFiles(ARCHIVE_SUFFIX);
+        // File names embed a fixed width timestamp, so name order is age order
+        Arrays.sort(files);
+        for (int i = 0, n = files.length - mMaxFiles; i < n; i++) {
+            files[i].delete();
+        }
+    }
+
+    @NotNull
+    private File getActiveFile() {
+        return new File(mDirectory, mPrefix + ACTIVE_SUFFIX);
+    }
+
+    @NotNull
+    private File[] listFiles(String suffix) {
+        String prefix = mPrefix + '-';
+        File[] files = mDirectory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+        return (files != null) ? files : new File[0];
+    }
+
+    @SuppressWarnings({ "ResultOfMethodCallIgnored", "NestedAssignment" })
+    private static void compress(File file) {
+        File temp = new File(file.getPath() + ".gz.tmp");
+        File archive = new File(file.getPath() + ".gz");
+        byte[] bytes = new byte[DEFAULT_BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file); OutputStream out = new GZIPOutputStream(new FileOutputStream(temp))) {
+            int count;
+            while ((count = in.read(bytes)) != -1) {
+                out.write(bytes, 0, count);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not compress log file", e);
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(archive)) {
+            file.delete();
+        }
+    }
+}
@@ -13,24 +13,55 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 public class LogManager {
 
+    /**
+     * A log line whose date and message are only materialized on first access, the raw argument of a >LOG: notification is kept
+     * together with the offsets of its fields so that lines that are never read by a listener cost no substring allocations.
+     */
     @SuppressWarnings("PublicInnerClass")
     public static class Log {
 
-        private final String mDate;
+        private final String mArgument;
+
+        private final int mDateEnd;
 
         private final LogLevel mLevel;
 
-        private final String mMessage;
+        private final int mMessageStart;
+
+        private String mDate;
+
+        private String mMessage;
 
         public Log(@NotNull String date, @NotNull LogLevel level, @NotNull String message) {
+            mArgument = null;
+            mDateEnd = 0;
+            mMessageStart = 0;
             mDate = date;
             mLevel = level;
             mMessage = message;
         }
 
+        /**
+         * @param argument     the raw argument, e.g. {@code 1577836800,I,message}
+         * @param dateEnd      the index of the first separator, the date is {@code argument[0, dateEnd)}
+         * @param level        the already decoded level
+         * @param messageStart the index at which the message text starts
+         */
+        public Log(@NotNull String argument, int dateEnd, @NotNull LogLevel level, int messageStart) {
+            mArgument = argument;
+            mDateEnd = dateEnd;
+            mLevel = level;
+            mMessageStart = messageStart;
+        }
+
         @NotNull
         public String getDate() {
-            return mDate;
+            String date = mDate;
+            if (date == null) {
+                date = mArgument.substring(0, mDateEnd);
+                mDate = date;
+            }
+            return date;
         }
 
         @NotNull
@@ -40,7 +71,12 @@ public class LogManager {
 
         @NotNull
         public String getMessage() {
-            return mMessage;
+            String message = mMessage;
+            if (message == null) {
+                message = mArgument.substring(mMessageStart);
+                mMessage = message;
+            }
+            return message;
         }
     }
 
@@ -51,22 +87,70 @@ public class LogManager {
         void onLog(@NotNull Log log);
     }
 
-    private final List<LogListener> logListener;
+    private static final class Subscription {
+
+        private final LogListener mListener;
+
+        private final LogLevel mLevel;
+
+        private Subscription(LogListener listener, LogLevel level) {
+            mListener = listener;
+            mLevel = level;
+        }
+    }
+
+    private final List<Subscription> logListener;
 
     private Log mLog;
 
+    /**
+     * The ordinal of the most verbose level any listener is subscribed to, or -1 when there are no listeners
+     */
+    private volatile int mMaxLevel = -1;
+
     public LogManager() {
         logListener = new CopyOnWriteArrayList<>();
     }
 
     public void addListener(@NotNull LogListener listener) {
-        if (!logListener.contains(listener)) {
-            logListener.add(listener);
-        }
+        addListener(listener, LogLevel.VERBOSE);
+    }
+
+    /**
+     * @param listener the listener to add
+     * @param level    the most verbose level the listener wants to receive, e.g. {@link LogLevel#INFO} receives ERROR, WARNING and
+     *                 INFO lines
+     */
+    public synchronized void addListener(@NotNull LogListener listener, @NotNull LogLevel level) {
+        removeListener(listener);
+        logListener.add(new Subscription(listener, level));
+        updateMaxLevel();
+    }
+
+    @NotNull
+    public LogLevel getLevel() {
+        int maxLevel = mMaxLevel;
+        return (maxLevel < 0) ? LogLevel.ERROR : LogLevel.values()[maxLevel];
+    }
+
+    public boolean hasListeners() {
+        return mMaxLevel >= 0;
+    }
+
+    /**
+     * @return true if at least one listener is subscribed to lines of the given level, in which case the line should be decoded
+     */
+    public boolean isLoggable(@NotNull LogLevel level) {
+        return level.ordinal() <= mMaxLevel;
     }
 
-    public void removeListener(@NotNull LogListener listener) {
-        logListener.remove(listener);
+    public synchronized void removeListener(@NotNull LogListener listener) {
+        for (Subscription subscription : logListener) {
+            if (subscription.mListener.equals(listener)) {
+                logListener.remove(subscription);
+            }
+        }
+        updateMaxLevel();
     }
 
     public void setLog(@NotNull Log log) {
@@ -75,8 +159,20 @@ public class LogManager {
     }
 
     private void notifyListeners() {
-        for (LogListener listener : logListener) {
-            listener.onLog(mLog);
+        Log log = mLog;
+        int level = log.getLevel().ordinal();
+        for (Subscription subscription : logListener) {
+            if (level <= subscription.mLevel.ordinal()) {
+                subscription.mListener.onLog(log);
+            }
+        }
+    }
+
+    private void updateMaxLevel() {
+        int maxLevel = -1;
+        for (Subscription subscription : logListener) {
+            maxLevel = Math.max(maxLevel, subscription.mLevel.ordinal());
         }
+        mMaxLevel = maxLevel;
     }
 }
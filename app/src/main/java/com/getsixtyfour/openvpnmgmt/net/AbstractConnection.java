@@ -5,6 +5,8 @@
  */
 package com.getsixtyfour.openvpnmgmt.net;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,8 +16,9 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author 1951FDG
@@ -27,6 +30,8 @@ abstract class AbstractConnection implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractConnection.class);
 
+    private static final String SCHEME_SEPARATOR = "://";
+
     private BufferedReader mBufferedReader;
 
     private BufferedWriter mBufferedWriter;
@@ -37,7 +42,13 @@ abstract class AbstractConnection implements Closeable {
 
     private Integer mPort;
 
-    private Socket mSocket;
+    private Transport mTransport;
+
+    private final Map<String, Transport.Factory> mTransportFactories = new ConcurrentHashMap<>();
+
+    protected AbstractConnection() {
+        mTransportFactories.put(TcpTransport.SCHEME, TcpTransport::new);
+    }
 
     @Override
     public void close() throws IOException {
@@ -48,8 +59,8 @@ abstract class AbstractConnection implements Closeable {
             mBufferedWriter.flush();
             mBufferedWriter.close();
         }
-        if (mSocket != null) {
-            mSocket.close();
+        if (mTransport != null) {
+            mTransport.close();
         }
     }
 
@@ -64,26 +75,33 @@ abstract class AbstractConnection implements Closeable {
     }
 
     private void connect() throws IOException {
-        LOGGER.info("Connecting to {}:{}", mHost, mPort);
-        mSocket = new Socket(mHost, mPort);
-        InputStreamReader in = new InputStreamReader(mSocket.getInputStream(), StandardCharsets.UTF_8);
+        LOGGER.info("Connecting to {}", (mPort != null) ? (mHost + ':' + mPort) : mHost);
+        String scheme = TcpTransport.SCHEME;
+        String address = mHost;
+        int index = mHost.indexOf(SCHEME_SEPARATOR);
+        if (index > 0) {
+            scheme = mHost.substring(0, index);
+            address = mHost.substring(index + SCHEME_SEPARATOR.length());
+        }
+        Transport.Factory factory = mTransportFactories.get(scheme);
+        if (factory == null) {
+            throw new IOException("unsupported scheme: " + scheme);
+        }
+        mTransport = factory.open(address, mPort, mKeepAlive);
+        InputStreamReader in = new InputStreamReader(mTransport.getInputStream(), StandardCharsets.UTF_8);
         mBufferedReader = new BufferedReader(in, DEFAULT_CHAR_BUFFER_SIZE);
-        OutputStreamWriter out = new OutputStreamWriter(mSocket.getOutputStream(), StandardCharsets.UTF_8);
+        OutputStreamWriter out = new OutputStreamWriter(mTransport.getOutputStream(), StandardCharsets.UTF_8);
         mBufferedWriter = new BufferedWriter(out, DEFAULT_CHAR_BUFFER_SIZE);
-        mSocket.setKeepAlive(mKeepAlive);
-        mSocket.setTcpNoDelay(true);
     }
 
-    public void connect(String host, Integer port) throws IOException {
+    public void connect(String host, @Nullable Integer port) throws IOException {
         if (isConnected()) {
             throw new IOException("already connected");
         }
         if (host == null) {
             throw new IllegalArgumentException("hostname can't be null");
         }
-        if (port == null) {
-            throw new IllegalArgumentException("port can't be null");
-        }
+        // The port is checked by the transports that use one
         mHost = host;
         mPort = port;
         connect();
@@ -103,7 +121,7 @@ abstract class AbstractConnection implements Closeable {
     }
 
     public boolean isConnected() {
-        return (mSocket != null) && mSocket.isConnected() && !mSocket.isClosed();
+        return (mTransport != null) && mTransport.isConnected();
     }
 
     public boolean isKeepAlive() {
@@ -114,6 +132,13 @@ abstract class AbstractConnection implements Closeable {
         mKeepAlive = keepAlive;
     }
 
+    /**
+     * Make hosts of the form {@code scheme://address} connect through transports created by the given factory
+     */
+    public void registerTransport(@NotNull String scheme, @NotNull Transport.Factory factory) {
+        mTransportFactories.put(scheme, factory);
+    }
+
     protected BufferedReader getBufferedReader() {
         return mBufferedReader;
     }
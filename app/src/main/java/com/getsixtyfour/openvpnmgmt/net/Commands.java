@@ -38,6 +38,13 @@ final class Commands {
 
     public static final String LOG_COMMAND = "log %s";
 
+    /**
+     * mute   -- Show current mute level.
+     * mute n -- Log at most n consecutive messages in the same category, 0 disables muting.
+     */
+
+    public static final String MUTE_COMMAND = "mute %d";
+
     public static final String PASSWORD_COMMAND = "password '%s' %s";
 
     /**
@@ -62,6 +69,13 @@ final class Commands {
 
     public static final String USERNAME_COMMAND = "username '%s' %s";
 
+    /**
+     * verb   -- Show current verb level.
+     * verb n -- Change verb level to n, 0 shows only fatal errors, 1 to 4 is the normal usage range, 5 and up is for debugging.
+     */
+
+    public static final String VERB_COMMAND = "verb %d";
+
     public static final String VERSION_COMMAND = "version";
 
     private Commands() {
@@ -5,6 +5,7 @@
  */
 package com.getsixtyfour.openvpnmgmt.net;
 
+import com.getsixtyfour.openvpnmgmt.core.LogLevel;
 import com.getsixtyfour.openvpnmgmt.listeners.ByteCountManager.ByteCountListener;
 import com.getsixtyfour.openvpnmgmt.listeners.LogManager.LogListener;
 import com.getsixtyfour.openvpnmgmt.listeners.StateManager.StateListener;
@@ -31,6 +32,8 @@ public interface Connection extends ConnectionBackground {
 
     void setKeepAlive(boolean keepAlive);
 
+    void registerTransport(@NotNull String scheme, @NotNull Transport.Factory factory);
+
     //region ManagementConnection
 
     boolean isOpenVPNActive();
@@ -39,6 +42,8 @@ public interface Connection extends ConnectionBackground {
 
     void addLogListener(@NotNull LogListener listener);
 
+    void addLogListener(@NotNull LogListener listener, @NotNull LogLevel level);
+
     void addStateListener(@NotNull StateListener listener);
 
     void removeByteCountListener(@NotNull ByteCountListener listener);
@@ -49,6 +54,10 @@ public interface Connection extends ConnectionBackground {
 
     void setConnectionListener(@Nullable ConnectionListener connectionListener);
 
+    void setLogPushdown(boolean pushdown);
+
+    void setSessionJournal(@Nullable SessionJournal journal);
+
     void setUsernamePasswordHandler(@NotNull UsernamePasswordHandler handler); // todo notnull?
     //endregion OpenVpnConnection
 }
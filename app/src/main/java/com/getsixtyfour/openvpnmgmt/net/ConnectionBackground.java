@@ -4,6 +4,7 @@ import com.getsixtyfour.openvpnmgmt.api.Status;
 import com.getsixtyfour.openvpnmgmt.exceptions.OpenVpnParseException;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 
@@ -14,7 +15,10 @@ import java.io.IOException;
 //@WorkerThread // todo all the methods below should be called on background thread
 public interface ConnectionBackground extends Runnable {
 
-    void connect(@NotNull String host, @NotNull Integer port) throws IOException;
+    /**
+     * @param port the port, can be null for hosts whose transport is not port based, e.g. {@code unix://}
+     */
+    void connect(@NotNull String host, @Nullable Integer port) throws IOException;
 
     void disconnect();
 
@@ -47,8 +47,17 @@ public final class ManagementConnection extends AbstractConnection implements Co
 
     private static final String ARG_SIGTERM = "SIGTERM";
 
+    private static final String SETTING_MUTE = "mute";
+
+    private static final String SETTING_VERB = "verb";
+
+    // Recorded in the session journal in place of credentials
+    private static final String REDACTED = "***";
+
     public static final Integer BYTE_COUNT_INTERVAL = 2;
 
+    public static final Integer LOG_MUTE_COUNT = 20;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(ManagementConnection.class);
 
     @NonNls
@@ -70,8 +79,12 @@ public final class ManagementConnection extends AbstractConnection implements Co
 
     private ConnectionListener mConnectionListener;
 
+    private volatile SessionJournal mJournal;
+
     private ConnectionStatus mLastLevel = ConnectionStatus.LEVEL_NOT_CONNECTED;
 
+    private boolean mLogPushdown = false;
+
     private UsernamePasswordHandler mUsernamePasswordHandler;
 
     @NotNull
@@ -100,6 +113,11 @@ public final class ManagementConnection extends AbstractConnection implements Co
         mLogManager.addListener(Objects.requireNonNull(listener));
     }
 
+    @Override
+    public void addLogListener(@NotNull LogListener listener, @NotNull LogLevel level) {
+        mLogManager.addListener(Objects.requireNonNull(listener), Objects.requireNonNull(level));
+    }
+
     @Override
     public void addStateListener(@NotNull StateListener listener) {
         mStateManager.addListener(Objects.requireNonNull(listener));
@@ -107,7 +125,7 @@ public final class ManagementConnection extends AbstractConnection implements Co
 
     // todo safe split
     @Override
-    public void connect(@NotNull String host, @NotNull Integer port) throws IOException {
+    public void connect(@NotNull String host, @Nullable Integer port) throws IOException {
         if (!isConnected()) {
             try {
                 super.connect(host, port);
@@ -143,11 +161,13 @@ public final class ManagementConnection extends AbstractConnection implements Co
         StringBuilder sb = new StringBuilder(256);
         BufferedReader in = getBufferedReader();
         BufferedWriter out = getBufferedWriter();
+        record(SessionJournal.OUTBOUND, command);
         out.write(command);
         out.newLine();
         out.flush();
         @NonNls String line;
         while ((line = in.readLine()) != null) {
+            record(SessionJournal.RESPONSE, line);
             if (!in.ready() && "END".equals(line)) {
                 break;
             }
@@ -211,10 +231,14 @@ public final class ManagementConnection extends AbstractConnection implements Co
                 managementCommand(String.format(Locale.ROOT, Commands.BYTECOUNT_COMMAND, BYTE_COUNT_INTERVAL));
                 managementCommand(String.format(Locale.ROOT, Commands.STATE_COMMAND, ARG_ON));
                 managementCommand(String.format(Locale.ROOT, Commands.LOG_COMMAND, ARG_ON));
+                if (mLogPushdown) {
+                    pushLogFilter();
+                }
                 managementCommand(String.format(Locale.ROOT, Commands.HOLD_COMMAND, ARG_RELEASE));
                 BufferedReader in = getBufferedReader();
                 String line;
                 while ((line = in.readLine()) != null) {
+                    record(SessionJournal.INBOUND, line);
                     if (!line.isEmpty()) {
                         //LOGGER.info("Read from socket line: {}", line);
                         parseInput(line);
@@ -239,6 +263,16 @@ public final class ManagementConnection extends AbstractConnection implements Co
         mConnectionListener = connectionListener;
     }
 
+    @Override
+    public void setLogPushdown(boolean pushdown) {
+        mLogPushdown = pushdown;
+    }
+
+    @Override
+    public void setSessionJournal(@Nullable SessionJournal journal) {
+        mJournal = journal;
+    }
+
     @Override
     public void setUsernamePasswordHandler(@Nullable UsernamePasswordHandler handler) {
         mUsernamePasswordHandler = handler;
@@ -253,15 +287,65 @@ public final class ManagementConnection extends AbstractConnection implements Co
     }
 
     private void managementCommand(String command) throws IOException {
+        managementCommand(command, command);
+    }
+
+    /**
+     * @param journalLine the line recorded in the session journal in place of the command, e.g. without a password
+     */
+    private void managementCommand(String command, String journalLine) throws IOException {
         if (!isConnected()) {
             throw new IOException(SOCKET_IS_NOT_CONNECTED);
         }
+        record(SessionJournal.OUTBOUND, journalLine);
         BufferedWriter out = getBufferedWriter();
         out.write(command);
         out.newLine();
         out.flush();
     }
 
+    /**
+     * Record a line in the session journal, a journal that can't be written is detached so that the session goes on without it
+     */
+    private void record(byte direction, @NotNull String line) {
+        SessionJournal journal = mJournal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            switch (direction) {
+                case SessionJournal.INBOUND:
+                    journal.recordInbound(line);
+                    break;
+                case SessionJournal.OUTBOUND:
+                    journal.recordOutbound(line);
+                    break;
+                default:
+                    journal.recordResponse(line);
+                    break;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not write session journal", e);
+            if (mJournal == journal) {
+                mJournal = null;
+            }
+        }
+    }
+
+    @Nullable
+    SessionJournal getSessionJournal() {
+        return mJournal;
+    }
+
+    /**
+     * Parse a line as if it was read by the management thread, used by {@link SessionReplay}
+     */
+    void replayInput(@NotNull String line) throws IOException {
+        if (!line.isEmpty()) {
+            parseInput(line);
+        }
+    }
+
     private void onConnectError(@NotNull Throwable e) {
         LOGGER.error(e.toString());
         ConnectionListener listener = mConnectionListener;
@@ -346,6 +430,59 @@ public final class ManagementConnection extends AbstractConnection implements Co
         }
     }
 
+    /**
+     * Lower the verbosity of OpenVPN itself to the most verbose level any log listener is subscribed to, and mute repeated messages if
+     * OpenVPN does not mute any yet. The settings of OpenVPN are read first and only ever lowered, a setting that can't be read is
+     * left alone.
+     */
+    private void pushLogFilter() throws IOException {
+        LogManager manager = mLogManager;
+        if (manager.hasListeners()) {
+            LogLevel level = manager.getLevel();
+            if (level != LogLevel.VERBOSE) {
+                int verbosity = getVerbosity(level);
+                if (verbosity < querySetting(SETTING_VERB)) {
+                    managementCommand(String.format(Locale.ROOT, Commands.VERB_COMMAND, verbosity));
+                }
+            }
+        }
+        if (querySetting(SETTING_MUTE) == 0) {
+            managementCommand(String.format(Locale.ROOT, Commands.MUTE_COMMAND, LOG_MUTE_COUNT));
+        }
+    }
+
+    /**
+     * Read a setting of OpenVPN, such as verb, while the management thread is not reading yet. Real-time messages read meanwhile are
+     * parsed as usual.
+     *
+     * @return the value of the setting, or -1 if it can't be read
+     */
+    @SuppressWarnings({ "NestedAssignment", "MethodCallInLoopCondition", "MethodWithMultipleReturnPoints" })
+    private int querySetting(@NonNls String name) throws IOException {
+        managementCommand(name);
+        @NonNls String prefix = Strings.SUCCESS_PREFIX + " " + name + "=";
+        BufferedReader in = getBufferedReader();
+        String line;
+        while ((line = in.readLine()) != null) {
+            record(SessionJournal.INBOUND, line);
+            if (line.startsWith(prefix)) {
+                try {
+                    return Integer.parseInt(line.substring(prefix.length()).trim());
+                } catch (NumberFormatException ignored) {
+                    return -1;
+                }
+            }
+            if (line.startsWith(Strings.ERROR_PREFIX)) {
+                LOGGER.error(line);
+                return -1;
+            }
+            if (!line.isEmpty()) {
+                parseInput(line);
+            }
+        }
+        return -1;
+    }
+
     private void processByteCount(String argument) {
         int comma = argument.indexOf(',');
         Long in = Long.valueOf(argument.substring(0, comma));
@@ -362,29 +499,38 @@ public final class ManagementConnection extends AbstractConnection implements Co
         }
     }
 
-    @SuppressWarnings("OverlyLongMethod")
+    @SuppressWarnings({ "OverlyLongMethod", "MethodWithMultipleReturnPoints" })
     private void processLog(String argument) {
-        String[] args = argument.split(",", 3);
-        String date = args[0];
-        @NonNls String level = args[1];
-        String message = args[2];
+        LogManager manager = mLogManager;
+        if (!manager.hasListeners()) {
+            return;
+        }
+        int dateEnd = argument.indexOf(',');
+        int levelEnd = argument.indexOf(',', dateEnd + 1);
+        if ((dateEnd < 0) || (levelEnd < 0)) {
+            LOGGER.error("Got unrecognized log: {}", argument);
+            return;
+        }
+        // Only the level letter and the message prefix are inspected, nothing is allocated for lines no listener wants
+        char level = ((levelEnd - dateEnd) == 2) ? argument.charAt(dateEnd + 1) : '\0';
+        int messageStart = levelEnd + 1;
         LogLevel logLevel;
         switch (level) {
-            case "I":
+            case 'I':
                 // I -- informational
                 logLevel = LogLevel.INFO;
                 break;
-            case "F":
-            case "N":
+            case 'F':
+            case 'N':
                 // F -- fatal error
                 // N -- non-fatal error
                 logLevel = LogLevel.ERROR;
                 break;
-            case "W":
+            case 'W':
                 // W -- warning
                 logLevel = LogLevel.WARNING;
                 break;
-            case "D":
+            case 'D':
                 // D -- debug
                 logLevel = LogLevel.DEBUG;
                 break;
@@ -392,16 +538,17 @@ public final class ManagementConnection extends AbstractConnection implements Co
                 logLevel = LogLevel.VERBOSE;
                 break;
         }
-        if (message.startsWith(Strings.MANAGEMENT_CMD_PREFIX)) {
+        if (argument.startsWith(Strings.MANAGEMENT_CMD_PREFIX, messageStart)) {
             logLevel = LogLevel.VERBOSE;
-        } else if (message.startsWith(Strings.WARNING_PREFIX)) {
+        } else if (argument.startsWith(Strings.WARNING_PREFIX, messageStart)) {
             logLevel = LogLevel.WARNING;
-            message = message.substring(Strings.WARNING_PREFIX.length() + 1);
-        } else if (message.startsWith(Strings.NOTE_PREFIX)) {
-            message = message.substring(Strings.NOTE_PREFIX.length() + 1);
+            messageStart = Math.min(messageStart + Strings.WARNING_PREFIX.length() + 1, argument.length());
+        } else if (argument.startsWith(Strings.NOTE_PREFIX, messageStart)) {
+            messageStart = Math.min(messageStart + Strings.NOTE_PREFIX.length() + 1, argument.length());
+        }
+        if (manager.isLoggable(logLevel)) {
+            manager.setLog(new Log(argument, dateEnd, logLevel, messageStart));
         }
-        Log log = new Log(date, logLevel, message);
-        mLogManager.setLog(log);
     }
 
     private void processPassword(String argument) throws IOException {
@@ -433,11 +580,13 @@ public final class ManagementConnection extends AbstractConnection implements Co
              */
             String username = StringUtils.isBlank(handlerUsername) ? "..." : StringUtils.escapeOpenVPN(handlerUsername);
             String password = StringUtils.isBlank(handlerPassword) ? "..." : StringUtils.escapeOpenVPN(handlerPassword);
+            String redactedPassword = String.format(Locale.ROOT, Commands.PASSWORD_COMMAND, type, REDACTED);
             if ("Auth".equals(type)) {
-                managementCommand(String.format(Locale.ROOT, Commands.USERNAME_COMMAND, type, username));
-                managementCommand(String.format(Locale.ROOT, Commands.PASSWORD_COMMAND, type, password));
+                managementCommand(String.format(Locale.ROOT, Commands.USERNAME_COMMAND, type, username),
+                        String.format(Locale.ROOT, Commands.USERNAME_COMMAND, type, REDACTED));
+                managementCommand(String.format(Locale.ROOT, Commands.PASSWORD_COMMAND, type, password), redactedPassword);
             } else if ("Private Key".equals(type)) {
-                managementCommand(String.format(Locale.ROOT, Commands.PASSWORD_COMMAND, type, password));
+                managementCommand(String.format(Locale.ROOT, Commands.PASSWORD_COMMAND, type, password), redactedPassword);
             } else {
                 throw new UnsupportedOperationException(NOT_SUPPORTED_YET);
             }
@@ -458,4 +607,22 @@ public final class ManagementConnection extends AbstractConnection implements Co
             LOGGER.info("New OpenVPN Status ({}->{}): {}", name, mLastLevel, message);
         }
     }
+
+    @SuppressWarnings({ "MethodWithMultipleReturnPoints", "MagicNumber" })
+    private static int getVerbosity(LogLevel level) {
+        switch (level) {
+            case ERROR:
+            case WARNING:
+                // verb 1 -- only errors, warnings and startup info
+                return 1;
+            case INFO:
+                // verb 3 -- normal usage
+                return 3;
+            case DEBUG:
+            case VERBOSE:
+            default:
+                // verb 4 -- show parameters, without per-packet output
+                return 4;
+        }
+    }
 }
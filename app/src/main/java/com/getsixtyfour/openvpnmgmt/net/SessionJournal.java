@@ -0,0 +1,122 @@
+package com.getsixtyfour.openvpnmgmt.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only binary record of every line sent to and received from the management interface, see {@link SessionReplay}.
+ * <p>
+ * The file starts with a header of {@link #MAGIC}, {@link #VERSION} and the wall clock start time in milliseconds, followed by
+ * records of an int payload length, a direction byte, a long timestamp in nanoseconds since the start and the UTF-8 payload. Lines
+ * read by the management thread are {@link #INBOUND}, lines read as the reply to a command are {@link #RESPONSE}.
+ * The username and password sent in reply to a password request are recorded redacted.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public final class SessionJournal implements Closeable {
+
+    public static final byte INBOUND = 0;
+
+    public static final byte OUTBOUND = 1;
+
+    public static final byte RESPONSE = 2;
+
+    static final long MAGIC = 0x4F56504E4A524E4CL; // OVPNJRNL
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 8 + 4 + 8;
+
+    static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+
+    private static final int REGION_SIZE = 1024 * 1024;
+
+    private final FileChannel mChannel;
+
+    private final int mRegionSize;
+
+    private final long mStartNanos;
+
+    private MappedByteBuffer mBuffer;
+
+    private boolean mClosed = false;
+
+    private long mRegionStart;
+
+    @SuppressWarnings({ "IOResourceOpenedButNotSafelyClosed", "ChannelOpenedButNotSafelyClosed" })
+    public SessionJournal(@NotNull File file) throws IOException {
+        this(new RandomAccessFile(file, "rw").getChannel(), REGION_SIZE);
+    }
+
+    /**
+     * @param regionSize the size of each mapped region, at least {@link #HEADER_SIZE}
+     */
+    SessionJournal(@NotNull FileChannel channel, int regionSize) throws IOException {
+        mChannel = channel;
+        mRegionSize = regionSize;
+        mChannel.truncate(0L);
+        mStartNanos = System.nanoTime();
+        map(0L, regionSize);
+        mBuffer.putLong(MAGIC);
+        mBuffer.putInt(VERSION);
+        mBuffer.putLong(System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        long size = mRegionStart + mBuffer.position();
+        mBuffer.force();
+        mBuffer = null;
+        // Drop the unused tail of the last mapped region
+        mChannel.truncate(size);
+        mChannel.close();
+    }
+
+    public void recordInbound(@NotNull String line) throws IOException {
+        record(INBOUND, line);
+    }
+
+    public void recordOutbound(@NotNull String line) throws IOException {
+        record(OUTBOUND, line);
+    }
+
+    public void recordResponse(@NotNull String line) throws IOException {
+        record(RESPONSE, line);
+    }
+
+    private synchronized void record(byte direction, String line) throws IOException {
+        if (mClosed) {
+            return;
+        }
+        long nanos = System.nanoTime() - mStartNanos;
+        byte[] payload = line.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER_SIZE + payload.length;
+        if (mBuffer.remaining() < size) {
+            map(mRegionStart + mBuffer.position(), Math.max(mRegionSize, size));
+        }
+        MappedByteBuffer buffer = mBuffer;
+        buffer.putInt(payload.length);
+        buffer.put(direction);
+        buffer.putLong(nanos);
+        buffer.put(payload);
+    }
+
+    private void map(long position, int size) throws IOException {
+        mRegionStart = position;
+        mBuffer = mChannel.map(MapMode.READ_WRITE, position, size);
+    }
+}
@@ -0,0 +1,119 @@
+package com.getsixtyfour.openvpnmgmt.net;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds the inbound lines of a {@link SessionJournal} back into a {@link ManagementConnection}, either with the original timing
+ * scaled by a speed factor or as fast as possible, so parsing and listener dispatch can be profiled against captured sessions.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings("WeakerAccess")
+public final class SessionReplay {
+
+    public static final double ORIGINAL_SPEED = 1.0;
+
+    public static final double MAXIMUM_SPEED = Double.POSITIVE_INFINITY;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionReplay.class);
+
+    @SuppressWarnings("PublicInnerClass")
+    public static final class Result {
+
+        private final long mDispatchNanos;
+
+        private final long mLines;
+
+        private Result(long lines, long dispatchNanos) {
+            mLines = lines;
+            mDispatchNanos = dispatchNanos;
+        }
+
+        /**
+         * @return the time spent parsing and dispatching lines, excluding the time spent waiting to honour the original timing
+         */
+        public long getDispatchNanos() {
+            return mDispatchNanos;
+        }
+
+        public long getLines() {
+            return mLines;
+        }
+    }
+
+    private final File mFile;
+
+    public SessionReplay(@NotNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * @param speed {@link #ORIGINAL_SPEED} to replay with the recorded timing, 2.0 for twice as fast, {@link #MAXIMUM_SPEED} to not
+     *              wait between lines at all
+     */
+    @NotNull
+    @SuppressWarnings({ "NestedAssignment", "OverlyLongMethod" })
+    public Result replay(@NotNull ManagementConnection connection, double speed) throws IOException {
+        if (!(speed > 0.0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        long lines = 0L;
+        long dispatchNanos = 0L;
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r"); FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0L, channel.size());
+            if ((buffer.remaining() < SessionJournal.HEADER_SIZE) || (buffer.getLong() != SessionJournal.MAGIC)) {
+                throw new IOException("not a session journal: " + mFile);
+            }
+            int version = buffer.getInt();
+            if (version != SessionJournal.VERSION) {
+                throw new IOException("unsupported session journal version: " + version);
+            }
+            buffer.getLong();
+            long start = System.nanoTime();
+            while (buffer.remaining() >= SessionJournal.RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                byte direction = buffer.get();
+                long nanos = buffer.getLong();
+                if ((length < 0) || (length > buffer.remaining())) {
+                    throw new IOException("truncated session journal: " + mFile);
+                }
+                if ((direction != SessionJournal.INBOUND) || (length == 0)) {
+                    buffer.position(buffer.position() + length);
+                    continue;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                String line = new String(bytes, StandardCharsets.UTF_8);
+                if (speed != MAXIMUM_SPEED) {
+                    long deadline = start + (long) (nanos / speed);
+                    long delay;
+                    while ((delay = deadline - System.nanoTime()) > 0L) {
+                        LockSupport.parkNanos(delay);
+                    }
+                }
+                long before = System.nanoTime();
+                try {
+                    connection.replayInput(line);
+                } catch (IOException | RuntimeException e) {
+                    // Replies that need the management interface, e.g. a password request, can not be honoured during a replay
+                    LOGGER.warn("Could not replay line: {}", line, e);
+                }
+                dispatchNanos += System.nanoTime() - before;
+                lines++;
+            }
+        }
+        return new Result(lines, dispatchNanos);
+    }
+}
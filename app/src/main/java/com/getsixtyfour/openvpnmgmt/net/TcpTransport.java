@@ -0,0 +1,59 @@
+package com.getsixtyfour.openvpnmgmt.net;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * @author 1951FDG
+ */
+
+public final class TcpTransport implements Transport {
+
+    @NonNls
+    public static final String SCHEME = "tcp";
+
+    private final Socket mSocket;
+
+    @SuppressWarnings("IOResourceOpenedButNotSafelyClosed")
+    public TcpTransport(@NotNull String host, @Nullable Integer port, boolean keepAlive) throws IOException {
+        if (port == null) {
+            throw new IllegalArgumentException("port can't be null");
+        }
+        mSocket = new Socket(host, port);
+        try {
+            mSocket.setKeepAlive(keepAlive);
+            mSocket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            mSocket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    @NotNull
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @NotNull
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mSocket.isConnected() && !mSocket.isClosed();
+    }
+}
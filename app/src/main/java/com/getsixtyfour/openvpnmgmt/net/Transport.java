@@ -0,0 +1,40 @@
+package com.getsixtyfour.openvpnmgmt.net;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte stream to the management interface, selected by the scheme of the host passed to {@link Connection}, e.g.
+ * {@code 127.0.0.1} or {@code tcp://127.0.0.1} for TCP and {@code unix:///data/local/tmp/openvpn.sock} for a Unix domain socket.
+ *
+ * @author 1951FDG
+ */
+
+public interface Transport extends Closeable {
+
+    @SuppressWarnings("PublicInnerClass")
+    @FunctionalInterface
+    interface Factory {
+
+        /**
+         * @param address   the host without its scheme, e.g. a hostname or a socket path
+         * @param port      the port, ignored by transports that are not port based
+         * @param keepAlive whether to enable keep alive, ignored by transports that do not support it
+         */
+        @NotNull
+        Transport open(@NotNull String address, @Nullable Integer port, boolean keepAlive) throws IOException;
+    }
+
+    @NotNull
+    InputStream getInputStream() throws IOException;
+
+    @NotNull
+    OutputStream getOutputStream() throws IOException;
+
+    boolean isConnected();
+}
@@ -31,16 +31,16 @@ import com.tingyik90.snackprogressbar.SnackProgressBar.OnActionClickListener
 import com.tingyik90.snackprogressbar.SnackProgressBarManager
 import io.fabric.sdk.android.Fabric
 import io.github.getsixtyfour.openpyn.utils.NetworkInfo
-import io.github.getsixtyfour.openpyn.utils.createJson
-import io.github.getsixtyfour.openpyn.utils.stringifyJsonArray
+import io.github.getsixtyfour.openpyn.utils.SERVER
+import io.github.getsixtyfour.openpyn.utils.ServerSync
 import org.jetbrains.anko.activityUiThread
 import org.jetbrains.anko.doAsync
 import org.jetbrains.anko.onComplete
-import org.json.JSONArray
 import tk.wasdennnoch.progresstoolbar.ProgressToolbar
 import java.io.File
 import java.io.FileNotFoundException
 import java.io.IOException
+import java.net.URL
 
 private const val JUICE_SSH_PACKAGE_NAME = "com.sonelli.juicessh"
 const val SNACK_BAR_JUICESSH: Int = 1
@@ -84,26 +84,14 @@ fun <T : Activity> onRefreshItemSelected(activity: T, @Suppress("UNUSED_PARAMETE
 
     activity.doAsync {
         val debug = BuildConfig.DEBUG
-        var jsonArray: JSONArray? = null
-        var json: String? = null
-        var thrown = true
+        var changed = false
         if (NetworkInfo.getInstance().isOnline()) {
-            jsonArray = createJson()
-        }
-
-        if (jsonArray != null) {
-            json = when {
-                debug -> stringifyJsonArray(jsonArray)
-                else -> jsonArray.toString()
-            }
-        }
-
-        if (json != null) {
             try {
                 val child = activity.resources.getResourceEntryName(R.raw.nordvpn) + ".json"
                 val file = File(activity.getExternalFilesDir(null), child)
-                file.writeText(json)
-                thrown = false
+                val indent = if (debug) "  " else ""
+                // The stored list is only written when a server was added, removed or changed
+                changed = ServerSync(URL(SERVER), file, indent).sync().isChanged
             } catch (e: NotFoundException) {
                 logException(e)
             } catch (e: FileNotFoundException) {
@@ -117,7 +105,7 @@ fun <T : Activity> onRefreshItemSelected(activity: T, @Suppress("UNUSED_PARAMETE
             //drawable?.stop()
             toolbar?.hideProgress(true)
 
-            if (!thrown) {
+            if (changed) {
                 /*MaterialDialog.Builder(it).apply {
                     title(R.string.title_dialog_warning)
                     content(R.string.warning_must_restart_app)
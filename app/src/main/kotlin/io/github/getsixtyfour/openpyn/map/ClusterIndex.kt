@@ -0,0 +1,177 @@
+package io.github.getsixtyfour.openpyn.map
+
+import androidx.annotation.WorkerThread
+import com.androidmapsextensions.lazy.LazyMarker
+import com.google.android.gms.maps.model.LatLng
+import com.google.android.gms.maps.model.LatLngBounds
+import java.util.IdentityHashMap
+
+/**
+ * A group of markers that is drawn as one marker with a count at the zoom levels below [expansionZoom].
+ */
+class Cluster internal constructor(internal val x: Double, internal val y: Double, val count: Int, val expansionZoom: Int) {
+    val position: LatLng by lazy { LatLng(latitude(y), longitude(x)) }
+
+    override fun toString(): String {
+        return "Cluster{" + "count=" + count + ", expansionZoom=" + expansionZoom + ", position=" + position + "}"
+    }
+}
+
+/**
+ * A hierarchical clustering of markers, built off the main thread. At each integer zoom level, from [maxZoom] down to
+ * [minZoom], the clusters and markers of the level above are greedily merged with their neighbours within [RADIUS] pixels, so a
+ * marker that is in a cluster at one zoom level stays in one at every lower level. The clusters of each level are sorted by
+ * longitude, so [clusters] visits only the ones within the longitudes of the visible region.
+ *
+ * @author 1951FDG
+ */
+class ClusterIndex @WorkerThread constructor(markers: Collection<LazyMarker>, val minZoom: Int, val maxZoom: Int) {
+    // Highest zoom level at which each marker is in a cluster
+    private val mMergeZoom = IdentityHashMap<LazyMarker, Int>(markers.size)
+    // Clusters of each level, from minZoom, sorted by x
+    private val mLevels: Array<Array<Cluster>>
+
+    init {
+        var items = markers.map { Item(x(it.position.longitude), y(it.position.latitude), 1, it, null) }
+        val levels = arrayOfNulls<Array<Cluster>>(maxZoom - minZoom + 1)
+        for (zoom in maxZoom downTo minZoom) {
+            items = cluster(items, zoom)
+            levels[zoom - minZoom] = items.mapNotNull { it.cluster }.sortedBy { it.x }.toTypedArray()
+        }
+        @Suppress("UNCHECKED_CAST")
+        mLevels = levels as Array<Array<Cluster>>
+    }
+
+    /**
+     * @return true if the marker is drawn on its own, rather than as part of a cluster, at this zoom level
+     */
+    fun isLeaf(marker: LazyMarker, zoom: Int): Boolean {
+        val mergeZoom = mMergeZoom[marker] ?: return true
+        return zoom > mergeZoom
+    }
+
+    /**
+     * @return the clusters at this zoom level within the bounds
+     */
+    fun clusters(bounds: LatLngBounds, zoom: Int): List<Cluster> {
+        if (zoom > maxZoom) {
+            return emptyList()
+        }
+        val level = mLevels[zoom.coerceAtLeast(minZoom) - minZoom]
+        val left = x(bounds.southwest.longitude)
+        val right = x(bounds.northeast.longitude)
+        val top = y(bounds.northeast.latitude)
+        val bottom = y(bounds.southwest.latitude)
+        val result = ArrayList<Cluster>()
+        fun collect(from: Double, to: Double) {
+            var i = lowerBound(level, from)
+            while (i < level.size && level[i].x <= to) {
+                val cluster = level[i++]
+                if (cluster.y in top..bottom) {
+                    result.add(cluster)
+                }
+            }
+        }
+        // The region crosses the antimeridian when its west edge is east of its east edge
+        if (left <= right) {
+            collect(left, right)
+        } else {
+            collect(left, 1.0)
+            collect(0.0, right)
+        }
+        return result
+    }
+
+    private fun cluster(items: List<Item>, zoom: Int): List<Item> {
+        // Radius in world units, where the world is one unit wide
+        val radius = RADIUS / (TILE_SIZE * (1 shl zoom))
+        val grid = HashMap<Long, MutableList<Item>>(items.size)
+        items.forEach { grid.getOrPut(cell(it.x, it.y, radius)) { ArrayList(2) }.add(it) }
+        val result = ArrayList<Item>(items.size)
+        for (item in items) {
+            if (item.done) {
+                continue
+            }
+            item.done = true
+            val column = Math.floor(item.x / radius).toLong()
+            val row = Math.floor(item.y / radius).toLong()
+            val merged = ArrayList<Item>()
+            for (c in column - 1..column + 1) {
+                for (r in row - 1..row + 1) {
+                    grid[(c shl 32) or (r and 0xFFFFFFFFL)]?.forEach {
+                        if (!it.done && distanceSquared(item, it) <= radius * radius) {
+                            it.done = true
+                            merged.add(it)
+                        }
+                    }
+                }
+            }
+            if (merged.isEmpty()) {
+                result.add(Item(item.x, item.y, item.count, item.marker, item.cluster))
+                continue
+            }
+            merged.add(item)
+            var count = 0
+            var x = 0.0
+            var y = 0.0
+            merged.forEach {
+                count += it.count
+                x += it.x * it.count
+                y += it.y * it.count
+                it.marker?.let { marker -> mMergeZoom[marker] = zoom }
+            }
+            x /= count
+            y /= count
+            result.add(Item(x, y, count, null, Cluster(x, y, count, zoom + 1)))
+        }
+        return result
+    }
+
+    override fun toString(): String {
+        return "ClusterIndex{" + "minZoom=" + minZoom + ", maxZoom=" + maxZoom + ", mMarkers=" + mMergeZoom.size + "}"
+    }
+
+    // A marker or cluster at one zoom level
+    private class Item(val x: Double, val y: Double, val count: Int, val marker: LazyMarker?, val cluster: Cluster?) {
+        var done = false
+    }
+
+    companion object {
+        // Distance in pixels within which markers are clustered
+        private const val RADIUS = 60.0
+        private const val TILE_SIZE = 256.0
+
+        private fun cell(x: Double, y: Double, size: Double): Long {
+            return (Math.floor(x / size).toLong() shl 32) or (Math.floor(y / size).toLong() and 0xFFFFFFFFL)
+        }
+
+        private fun distanceSquared(a: Item, b: Item): Double {
+            val dx = a.x - b.x
+            val dy = a.y - b.y
+            return dx * dx + dy * dy
+        }
+
+        private fun lowerBound(level: Array<Cluster>, x: Double): Int {
+            var low = 0
+            var high = level.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (level[mid].x < x) low = mid + 1 else high = mid
+            }
+            return low
+        }
+    }
+}
+
+// Spherical mercator, where the world is one unit wide and y counts from the north
+
+private fun x(longitude: Double): Double = longitude / 360.0 + 0.5
+
+private fun y(latitude: Double): Double {
+    val sin = Math.sin(Math.toRadians(latitude)).coerceIn(-0.9999, 0.9999)
+    return (0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI).coerceIn(0.0, 1.0)
+}
+
+private fun longitude(x: Double): Double = (x - 0.5) * 360.0
+
+private fun latitude(y: Double): Double = Math.toDegrees(Math.atan(Math.sinh((0.5 - y) * 2 * Math.PI)))
@@ -0,0 +1,81 @@
+package io.github.getsixtyfour.openpyn.map
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Paint.Align
+import android.util.SparseArray
+import androidx.annotation.MainThread
+import androidx.core.content.ContextCompat
+import com.google.android.gms.maps.GoogleMap
+import com.google.android.gms.maps.model.BitmapDescriptor
+import com.google.android.gms.maps.model.BitmapDescriptorFactory
+import com.google.android.gms.maps.model.Marker
+import com.google.android.gms.maps.model.MarkerOptions
+import io.github.getsixtyfour.openpyn.R
+import java.util.IdentityHashMap
+
+/**
+ * Draws one marker with a count for each visible [Cluster], keeping the markers of the clusters that stay visible and removing
+ * the rest.
+ *
+ * @author 1951FDG
+ */
+@MainThread
+class ClusterRenderer(context: Context, private val map: GoogleMap) {
+    private val mDensity = context.resources.displayMetrics.density
+    private val mIcons = SparseArray<BitmapDescriptor>()
+    private val mMarkers = IdentityHashMap<Cluster, Marker>()
+    private val mFill = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = ContextCompat.getColor(context, R.color.accent_material_indigo_200)
+    }
+    private val mText = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = ContextCompat.getColor(context, R.color.colorTitleText)
+        textAlign = Align.CENTER
+        textSize = TEXT_SIZE * mDensity
+        isFakeBoldText = true
+    }
+
+    /**
+     * Show markers for the clusters and remove the markers of the clusters shown by the last call that are not among them.
+     */
+    fun update(clusters: List<Cluster>) {
+        val visible = IdentityHashMap<Cluster, Marker>(clusters.size)
+        clusters.forEach { cluster ->
+            visible[cluster] = mMarkers.remove(cluster) ?: map.addMarker(
+                MarkerOptions().position(cluster.position).icon(icon(cluster.count)).anchor(0.5f, 0.5f).flat(true)
+            ).apply { tag = cluster }
+        }
+        mMarkers.values.forEach { it.remove() }
+        mMarkers.clear()
+        mMarkers.putAll(visible)
+    }
+
+    private fun icon(count: Int): BitmapDescriptor {
+        // Counts above 99 share one icon
+        val label = if (count > MAX_COUNT) MAX_COUNT + 1 else count
+        return mIcons[label] ?: createIcon(if (label > MAX_COUNT) "$MAX_COUNT+" else label.toString()).also { mIcons.put(label, it) }
+    }
+
+    private fun createIcon(text: String): BitmapDescriptor {
+        val size = (SIZE * mDensity).toInt()
+        val bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(bitmap)
+        val radius = size / 2.0f
+        canvas.drawCircle(radius, radius, radius, mFill)
+        canvas.drawText(text, radius, radius - (mText.descent() + mText.ascent()) / 2, mText)
+        return BitmapDescriptorFactory.fromBitmap(bitmap)
+    }
+
+    override fun toString(): String {
+        return "ClusterRenderer{" + "mMarkers=" + mMarkers.size + ", mIcons=" + mIcons.size() + "}"
+    }
+
+    companion object {
+        private const val MAX_COUNT = 99
+        // Icon diameter and text size, in dp
+        private const val SIZE = 32
+        private const val TEXT_SIZE = 12
+    }
+}
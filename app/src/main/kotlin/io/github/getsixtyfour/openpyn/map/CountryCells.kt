@@ -0,0 +1,199 @@
+package io.github.getsixtyfour.openpyn.map
+
+import android.content.res.AssetFileDescriptor
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel.MapMode
+
+/**
+ * Country boundaries read from the cell file written at build time from boundaries.ser by the buildCountryCells task, see
+ * boundaries.gradle.
+ *
+ * The file is read through a read-only memory mapping, only the ids are decoded when it is opened, a lookup decodes the one cell
+ * it falls in straight from the mapping, so only the pages of the cells that are looked up are ever loaded. All values are
+ * big-endian:
+ * <pre>
+ * header     int magic, int version, int width, int height, int id count
+ * ids        per id: short length and UTF-8 id, double size, smaller countries and subdivisions first in results
+ * offsets    width * height + 1 ints, the offset of each cell relative to the data section, cells are stored row by row from
+ *            the north, columns from the antimeridian
+ * data       per cell: short count and short ids of the countries that contain the whole cell, short count of the countries
+ *            that cross it, per crossing country: short id, short outer ring count, short inner ring count, then the outer
+ *            and inner rings, each an int point count and int longitude, latitude pairs in units of 1e-7 degrees
+ * </pre>
+ *
+ * @author 1951FDG
+ */
+class CountryCells @Throws(IOException::class) constructor(private val mBuffer: ByteBuffer) {
+    private val mWidth: Int
+    private val mHeight: Int
+    private val mIds: Array<String>
+    private val mSizes: DoubleArray
+    private val mOffsetsStart: Int
+    private val mDataStart: Int
+
+    init {
+        if ((mBuffer.capacity() < HEADER_SIZE) || (mBuffer.getInt(0) != MAGIC)) {
+            throw IOException("not a country cell file")
+        }
+        val version = mBuffer.getInt(4)
+        if (version != VERSION) {
+            throw IOException("unsupported country cell file version: $version")
+        }
+        mWidth = mBuffer.getInt(8)
+        mHeight = mBuffer.getInt(12)
+        val count = mBuffer.getInt(16)
+        var position = HEADER_SIZE
+        val ids = arrayOfNulls<String>(count)
+        mSizes = DoubleArray(count)
+        val buffer = mBuffer.duplicate()
+        for (i in 0 until count) {
+            val length = buffer.getShort(position).toInt() and 0xFFFF
+            val bytes = ByteArray(length)
+            buffer.position(position + 2)
+            buffer.get(bytes)
+            ids[i] = String(bytes, Charsets.UTF_8)
+            position += 2 + length
+            mSizes[i] = buffer.getDouble(position)
+            position += 8
+        }
+        @Suppress("UNCHECKED_CAST")
+        mIds = ids as Array<String>
+        mOffsetsStart = position
+        mDataStart = mOffsetsStart + ((mWidth * mHeight + 1) * 4)
+    }
+
+    /**
+     * @param descriptor the cell file, which must be stored uncompressed in the APK so it can be mapped
+     */
+    @Throws(IOException::class)
+    constructor(descriptor: AssetFileDescriptor) : this(
+        // The mapping stays valid once the descriptor is closed
+        descriptor.use { it.createInputStream().channel.map(MapMode.READ_ONLY, it.startOffset, it.length) }
+    )
+
+    @Throws(IOException::class)
+    constructor(file: File) : this(RandomAccessFile(file, "r").use { it.channel.map(MapMode.READ_ONLY, 0, it.length()) })
+
+    /**
+     * @return the ids of the countries and subdivisions the coordinate is in, smallest first
+     */
+    fun getIds(longitude: Double, latitude: Double): List<String> {
+        val x = longitude * SCALE
+        val y = latitude * SCALE
+        var position = cell(longitude, latitude)
+        val result = ArrayList<Int>(2)
+        val containing = getShort(position)
+        position += 2
+        for (i in 0 until containing) {
+            result.add(getShort(position))
+            position += 2
+        }
+        val crossing = getShort(position)
+        position += 2
+        for (i in 0 until crossing) {
+            val id = getShort(position)
+            val outerRings = getShort(position + 2)
+            val innerRings = getShort(position + 4)
+            position += 6
+            var inOuter = false
+            for (r in 0 until outerRings) {
+                inOuter = inOuter or contains(position, x, y)
+                position = skipRing(position)
+            }
+            var inInner = false
+            for (r in 0 until innerRings) {
+                inInner = inInner or contains(position, x, y)
+                position = skipRing(position)
+            }
+            if (inOuter && !inInner) {
+                result.add(id)
+            }
+        }
+        result.sortBy { mSizes[it] }
+        return result.map { mIds[it] }
+    }
+
+    /**
+     * @return true if no border crosses the area, which must lie within one cell, so every coordinate in it is in the same
+     * countries
+     */
+    fun isUniform(minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double): Boolean {
+        val minX = minLongitude * SCALE
+        val minY = minLatitude * SCALE
+        val maxX = maxLongitude * SCALE
+        val maxY = maxLatitude * SCALE
+        var position = cell((minLongitude + maxLongitude) / 2, (minLatitude + maxLatitude) / 2)
+        position += 2 + getShort(position) * 2
+        val crossing = getShort(position)
+        position += 2
+        for (i in 0 until crossing) {
+            val rings = getShort(position + 2) + getShort(position + 4)
+            position += 6
+            for (r in 0 until rings) {
+                val count = mBuffer.getInt(position)
+                val points = position + 4
+                var j = count - 1
+                for (k in 0 until count) {
+                    // An edge whose bounding box overlaps the area may cross it
+                    val xk = mBuffer.getInt(points + k * 8)
+                    val yk = mBuffer.getInt(points + k * 8 + 4)
+                    val xj = mBuffer.getInt(points + j * 8)
+                    val yj = mBuffer.getInt(points + j * 8 + 4)
+                    if ((Math.max(xk, xj) >= minX) && (Math.min(xk, xj) <= maxX) && (Math.max(yk, yj) >= minY) &&
+                        (Math.min(yk, yj) <= maxY)) {
+                        return false
+                    }
+                    j = k
+                }
+                position = skipRing(position)
+            }
+        }
+        return true
+    }
+
+    // Ray casting, the point is inside if a ray from it crosses the ring an odd number of times
+    private fun contains(position: Int, x: Double, y: Double): Boolean {
+        val count = mBuffer.getInt(position)
+        val points = position + 4
+        var inside = false
+        var j = count - 1
+        for (i in 0 until count) {
+            val xi = mBuffer.getInt(points + i * 8).toDouble()
+            val yi = mBuffer.getInt(points + i * 8 + 4).toDouble()
+            val xj = mBuffer.getInt(points + j * 8).toDouble()
+            val yj = mBuffer.getInt(points + j * 8 + 4).toDouble()
+            if (((yi > y) != (yj > y)) && (x < (xj - xi) * (y - yi) / (yj - yi) + xi)) {
+                inside = !inside
+            }
+            j = i
+        }
+        return inside
+    }
+
+    private fun skipRing(position: Int): Int = position + 4 + mBuffer.getInt(position) * 8
+
+    private fun getShort(position: Int): Int = mBuffer.getShort(position).toInt()
+
+    // Position of the data of the cell the coordinate falls in
+    private fun cell(longitude: Double, latitude: Double): Int {
+        val column = ((longitude + 180.0) / 360.0 * mWidth).toInt().coerceIn(0, mWidth - 1)
+        val row = ((90.0 - latitude) / 180.0 * mHeight).toInt().coerceIn(0, mHeight - 1)
+        return mDataStart + mBuffer.getInt(mOffsetsStart + (row * mWidth + column) * 4)
+    }
+
+    override fun toString(): String {
+        return "CountryCells{" + "mWidth=" + mWidth + ", mHeight=" + mHeight + ", mIds=" + mIds.size + ", mSize=" +
+                mBuffer.capacity() + "}"
+    }
+
+    companion object {
+        const val MAGIC = 0x43424E44 // CBND
+        const val VERSION = 1
+        private const val HEADER_SIZE = 5 * 4
+        // Coordinates are stored in units of 1e-7 degrees
+        private const val SCALE = 1e7
+    }
+}
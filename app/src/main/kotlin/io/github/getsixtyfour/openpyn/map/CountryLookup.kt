@@ -0,0 +1,84 @@
+package io.github.getsixtyfour.openpyn.map
+
+import android.util.LruCache
+import androidx.annotation.WorkerThread
+import de.jupf.staticlog.Log
+
+/**
+ * Looks up the countries of coordinates, remembering the result for a small grid cell around each coordinate when the whole cell
+ * is in the same countries, so that repeated lookups near the same place skip the polygon tests. Cells that straddle a border
+ * are remembered as such and always tested exactly.
+ *
+ * @author 1951FDG
+ */
+class CountryLookup(private val cells: CountryCells) {
+    private val mCells = LruCache<Long, List<String>>(MAX_CELLS)
+
+    /**
+     * @return the ids of the countries and subdivisions the coordinate is in, largest last
+     */
+    fun getIds(longitude: Double, latitude: Double): List<String> {
+        var t = System.nanoTime()
+        val ids = lookup(longitude, latitude)
+        t = System.nanoTime() - t
+        Log.debug(getString(ids) + " (in " + "%.3f".format(t / NANOS_PER_MILLI) + "ms)")
+        return ids
+    }
+
+    /**
+     * Look up many coordinates in one pass, in cell order so that the coordinates of a cell share one lookup.
+     *
+     * @return the ids of each coordinate, in the order of the coordinates
+     */
+    @WorkerThread
+    fun getIds(longitudes: DoubleArray, latitudes: DoubleArray): Array<List<String>> {
+        var t = System.nanoTime()
+        val order = longitudes.indices.sortedBy { cell(longitudes[it], latitudes[it]) }
+        val result = arrayOfNulls<List<String>>(longitudes.size)
+        order.forEach { result[it] = lookup(longitudes[it], latitudes[it]) }
+        t = System.nanoTime() - t
+        Log.debug("classified " + longitudes.size + " coordinates (in " + "%.3f".format(t / NANOS_PER_MILLI) + "ms)")
+        @Suppress("UNCHECKED_CAST")
+        return result as Array<List<String>>
+    }
+
+    private fun lookup(longitude: Double, latitude: Double): List<String> {
+        val key = cell(longitude, latitude)
+        val cached = mCells.get(key)
+        if (cached != null && cached !== MIXED) {
+            return cached
+        }
+        val ids = cells.getIds(longitude, latitude)
+        if (cached == null) {
+            val minLongitude = Math.floor(longitude / CELL) * CELL
+            val minLatitude = Math.floor(latitude / CELL) * CELL
+            val maxLongitude = minLongitude + CELL
+            val maxLatitude = minLatitude + CELL
+            val uniform = cells.isUniform(minLongitude, minLatitude, maxLongitude, maxLatitude)
+            mCells.put(key, if (uniform) ids else MIXED)
+        }
+        return ids
+    }
+
+    override fun toString(): String {
+        return "CountryLookup{" + "mCells=" + mCells + "}"
+    }
+
+    companion object {
+        // Cell size in degrees, about 11 km at the equator
+        private const val CELL = 0.1
+        private const val MAX_CELLS = 256
+        private const val NANOS_PER_MILLI = 1000000f
+        // Marks a cell that straddles a border
+        private val MIXED: List<String> = ArrayList(0)
+
+        private fun cell(longitude: Double, latitude: Double): Long {
+            return (Math.floor(longitude / CELL).toLong() shl 32) or (Math.floor(latitude / CELL).toLong() and 0xFFFFFFFFL)
+        }
+
+        private fun getString(ids: List<String>): String = when {
+            ids.isEmpty() -> "is nowhere"
+            else -> "is in " + ids.joinToString()
+        }
+    }
+}
@@ -10,6 +10,9 @@ import com.antoniocarlon.map.CameraUpdateAnimator
 import com.antoniocarlon.map.CameraUpdateAnimator.Animation
 import com.antoniocarlon.map.CameraUpdateAnimator.AnimatorListener
 import com.cocoahero.android.gmaps.addons.mapbox.MapBoxOfflineTileProvider
+import com.cocoahero.android.gmaps.addons.mapbox.OverzoomTileProvider
+import com.cocoahero.android.gmaps.addons.mapbox.TileCache
+import com.cocoahero.android.gmaps.addons.mapbox.TilePrefetcher
 import com.google.android.gms.maps.CameraUpdateFactory
 import com.google.android.gms.maps.GoogleMap
 import com.google.android.gms.maps.GoogleMap.OnCameraIdleListener
@@ -27,7 +30,7 @@ import com.naver.android.svc.annotation.ControlTower
 import com.naver.android.svc.annotation.RequireScreen
 import com.naver.android.svc.annotation.RequireViews
 import de.jupf.staticlog.Log
-import de.westnordost.countryboundaries.CountryBoundaries
+import io.github.getsixtyfour.openpyn.BuildConfig
 import io.github.getsixtyfour.openpyn.R
 import io.github.getsixtyfour.openpyn.logException
 import io.github.getsixtyfour.openpyn.utils.LazyMarkerStorage
@@ -43,6 +46,7 @@ import kotlinx.coroutines.Dispatchers.IO
 import kotlinx.coroutines.Dispatchers.Main
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.MainScope
 import kotlinx.coroutines.ObsoleteCoroutinesApi
 import kotlinx.coroutines.async
@@ -56,7 +60,6 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.jetbrains.anko.AnkoLogger
 import org.jetbrains.anko.info
-import org.json.JSONArray
 import org.json.JSONObject
 import java.util.HashSet
 
@@ -81,7 +84,12 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     }
     private val applicationContext: Context
         get() = screen.requireContext().applicationContext
-    private lateinit var markers: HashMap<LatLng, LazyMarker>
+    private lateinit var mMarkerStore: MarkerStore
+    private lateinit var mMarkerGrid: MarkerGrid
+    private val mMarkerScheduler = MarkerScheduler()
+    private var mClusterIndex: ClusterIndex? = null
+    private var mClusterJob: Job? = null
+    private var mClusterRenderer: ClusterRenderer? = null
     private lateinit var flags: HashSet<CharSequence>
     private lateinit var mAnimations: ArrayList<Animation>
     private var mMap: GoogleMap? = null
@@ -89,10 +97,13 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     private val mMarkerStorage by lazy { LazyMarkerStorage(FAVORITE_KEY) }
     //set by async
     private lateinit var mCountries: List<MultiSelectable>
-    private var mCountryBoundaries: CountryBoundaries? = null
-    private lateinit var mFavorites: ArrayList<LazyMarker>
-    private lateinit var mJsonArray: JSONArray
+    private var mCountryLookup: CountryLookup? = null
+    private lateinit var mSnapshot: MapSnapshot
+    private var mServerIndex: ServerIndex? = null
     private var mTileProvider: MapBoxOfflineTileProvider? = null
+    private var mOverzoomTileProvider: OverzoomTileProvider? = null
+    private var mTileCache: TileCache? = null
+    private var mTilePrefetcher: TilePrefetcher? = null
 
     @ObsoleteCoroutinesApi
     @ExperimentalCoroutinesApi
@@ -123,6 +134,12 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
         mCameraUpdateAnimator?.onDestroy()
         mCameraUpdateAnimator?.animatorListener = null
         mSendChannel.close()
+        mMarkerScheduler.cancel()
+        mTilePrefetcher?.close()
+        mTileCache?.let {
+            info(it.toString())
+            applicationContext.unregisterComponentCallbacks(it)
+        }
         mTileProvider?.close()
         cancel()
     }
@@ -142,41 +159,40 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     override fun onCameraIdle() {
         val bounds = mMap!!.projection.visibleRegion.latLngBounds
 
-        markers.forEach { (key, value) ->
-            if (bounds.contains(key) && flags.contains(value.tag)) {
-                if (!value.isVisible) value.isVisible = true
-            } else {
-                if (value.isVisible) value.isVisible = false
+        mTilePrefetcher?.prefetch(bounds, mMap!!.cameraPosition.zoom)
 
-                if (value.zIndex == 1.0f) {
-                    value.setLevel(value.level, onLevelChangeCallback)
+        val zoom = mMap!!.cameraPosition.zoom.toInt()
+        val clusters = mClusterIndex
+        mMarkerScheduler.setCentre(mMap!!.cameraPosition.target)
+        mMarkerGrid.update(bounds, { flags.contains(it.tag) && (clusters == null || clusters.isLeaf(it, zoom)) }) {
+            if (it === mMarkerStore.selected) {
+                mMarkerStore.deselect()
 
-                    views.hideFavoriteButton()
-                }
+                views.hideFavoriteButton()
             }
         }
+        mClusterRenderer?.update(clusters?.clusters(bounds, zoom) ?: emptyList())
     }
 
     override fun onMapClick(point: LatLng) {
-        markers.entries.firstOrNull { it.value.zIndex == 1.0f }?.value?.let {
-            it.setLevel(it.level, onLevelChangeCallback)
-
+        mMarkerStore.deselect()?.let {
             views.hideFavoriteButton()
         }
     }
 
     override fun onMarkerClick(marker: Marker): Boolean {
+        (marker.tag as? Cluster)?.let {
+            mMap?.animateCamera(CameraUpdateFactory.newLatLngZoom(it.position, it.expansionZoom.toFloat()))
+            return true
+        }
+
         if (marker.zIndex == 1.0f) {
             views.callConnectFabOnClick()
         } else {
-            markers.entries.firstOrNull { it.value.zIndex == 1.0f }?.value?.let {
-                it.setLevel(it.level, onLevelChangeCallback)
-            }
+            mMarkerStore[marker.position]?.let {
+                mMarkerStore.select(it)
 
-            markers[marker.position]?.let {
-                onLevelChangeCallback.onLevelChange(it, 10)
-
-                views.toggleFavoriteButton(it.level == 1)
+                views.toggleFavoriteButton(mMarkerStore.isFavorite(it))
             }
         }
 
@@ -197,7 +213,11 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
             flags = getCurrentFlags(it, selectedIds)
         }
 
-        onCameraIdle()
+        mClusterJob?.cancel()
+        mClusterJob = launch {
+            mClusterIndex = createClusterIndex()
+            onCameraIdle()
+        }
     }
 
     override fun showCountryFilterDialog() {
@@ -213,18 +233,18 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     }
 
     override fun toggleFavoriteMarker() {
-        markers.entries.firstOrNull { it.value.zIndex == 1.0f }?.value?.let {
+        mMarkerStore.selected?.let {
             when (it.level) {
                 0 -> {
-                    it.setLevel(1, null)
+                    mMarkerStore.setLevel(it, 1)
                     mMarkerStorage.addFavorite(applicationContext, it)
                 }
                 1 -> {
-                    it.setLevel(0, null)
+                    mMarkerStore.setLevel(it, 0)
                     mMarkerStorage.removeFavorite(applicationContext, it)
                 }
             }
-            views.toggleFavoriteButton((it.level == 1))
+            views.toggleFavoriteButton(mMarkerStore.isFavorite(it))
         }
     }
 
@@ -252,14 +272,14 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     override fun onAnimationFinish(animation: Animation) {
         if (animation.isClosest) {
             views.fakeLayoutButtons()
-            markers[animation.target]?.let {
+            mMarkerStore[animation.target]?.let {
                 if (flags.contains(it.tag)) {
-                    onLevelChangeCallback.onLevelChange(it, 10)
+                    mMarkerStore.select(it)
 
-                    if (!it.isVisible) it.isVisible = true
+                    mMarkerGrid.show(it)
                     if (!it.isInfoWindowShown) it.showInfoWindow()
 
-                    views.toggleFavoriteButton(it.level == 1)
+                    views.toggleFavoriteButton(mMarkerStore.isFavorite(it))
                 }
             }
 
@@ -273,7 +293,7 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     }
 
     override fun onAnimationCancel(animation: Animation) {
-        markers[animation.target]?.let {
+        mMarkerStore[animation.target]?.let {
             info("Animation to $it canceled")
         }
     }
@@ -284,7 +304,7 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
         views.toggleConnectButton(false)
 
         views.showListAndLocationButton()
-        markers.entries.firstOrNull { it.value.zIndex == 1.0f }?.value?.let {
+        mMarkerStore.selected?.let {
             if (!it.isInfoWindowShown) it.showInfoWindow()
             views.showFavoriteButton()
         }
@@ -304,7 +324,7 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
         views.toggleConnectButton(true)
 
         views.hideListAndLocationButton()
-        markers.entries.firstOrNull { it.value.zIndex == 1.0f }?.value?.let {
+        mMarkerStore.selected?.let {
             if (it.isInfoWindowShown) it.hideInfoWindow()
             views.hideFavoriteButton()
         }
@@ -326,12 +346,12 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     override fun positionAndFlagForSelectedMarker(): Pair<Coordinate?, String> {
         var pair: Pair<Coordinate?, String> = Pair(null, "")
 
-        markers.entries.firstOrNull { it.value.zIndex == 1.0f }?.let {
-            val latLng = it.key
-            val tag = it.value.tag
+        mMarkerStore.selected?.let {
+            val latLng = it.position
+            val tag = it.tag
 
             pair = when {
-                markers.count { entry -> entry.value.tag == tag } == 1 -> Pair(null, tag.toString())
+                mMarkerStore.count(tag) == 1 -> Pair(null, tag.toString())
                 else -> Pair(Coordinate(latLng.latitude, latLng.longitude), tag.toString())
             }
         }
@@ -350,32 +370,40 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
     private fun loadData() = launch(mHandler) {
         screen.toolBar?.showProgress(true)
 
-        val countries = async(IO) { countryList(applicationContext, R.raw.emojis) }
-        val countryBoundaries = async(IO) { getCountryBoundaries(applicationContext) }
-        val favorites = async(IO) { LazyMarkerStorage(FAVORITE_KEY).loadFavorites(applicationContext) }
-        val jsonArray = async(IO) { jsonArray(applicationContext, R.raw.nordvpn, ".json") }
-        val tileProvider = async(IO) { fileBackedTileProvider() }
+        val snapshot = async(IO) { loadMapSnapshot(applicationContext) }
+        val favorites = async(IO) { mMarkerStorage.loadFavorites(applicationContext) }
+        val countryCells = async(IO) { getCountryCells(applicationContext) }
+        val serverIndex = async(Default) { ServerIndex(snapshot.await().servers) }
+        val tileProvider = async(IO) { configuredTileProvider(applicationContext) }
         val jsonObj = async(IO) { createGeoJson(applicationContext) }
 
-        mCountries = countries.await()
+        mSnapshot = snapshot.await()
+        mCountries = mSnapshot.countries
         mTileProvider = tileProvider.await()
-        mCountryBoundaries = countryBoundaries.await()
-        mFavorites = favorites.await()
-        mJsonArray = jsonArray.await()
+        mOverzoomTileProvider = OverzoomTileProvider(mTileProvider!!, mTileProvider!!.maximumZoom.toInt())
+        mTileCache = TileCache(mOverzoomTileProvider!!).also { applicationContext.registerComponentCallbacks(it) }
+        mTilePrefetcher = TilePrefetcher(mTileCache!!, mTileProvider!!.minimumZoom.toInt(), mOverzoomTileProvider!!.maximumZoom.toInt())
+        mCountryLookup = countryCells.await()?.let { CountryLookup(it) }
+        val servers = serverIndex.await().also { mServerIndex = it }
+        if (BuildConfig.DEBUG) {
+            mCountryLookup?.let { lookup -> launch(Default) { validateServers(lookup, servers) } }
+        }
 
         screen.toolBar?.hideProgress(true)
 
-        showData(jsonObj.await())
+        showData(jsonObj.await(), favorites.await())
     }
 
-    private suspend fun showData(jsonObj: JSONObject?) {
+    private suspend fun showData(jsonObj: JSONObject?, favorites: List<LazyMarker>) {
         val (hashSet, hashMap) = withContext(Default) {
-            createMarkers(applicationContext, mJsonArray, mCountries, mMap!!, mFavorites, onLevelChangeCallback)
+            createMarkers(mMap!!, mSnapshot, favorites, onLevelChangeCallback)
         }
         flags = withContext(Default) { showPrintArray(applicationContext, mCountries, hashSet) }
-        markers = hashMap
+        mMarkerStore = MarkerStore(hashMap, onLevelChangeCallback)
+        mMarkerGrid = withContext(Default) { MarkerGrid(hashMap.values, mMarkerScheduler) }
+        mClusterIndex = createClusterIndex()
         mAnimations = createCameraUpdates()
-        val latLng = getCurrentPosition(applicationContext, mCountryBoundaries, null, flags, jsonObj, mJsonArray)
+        val latLng = getCurrentPosition(applicationContext, mCountryLookup, null, flags, jsonObj, mServerIndex)
         val animation = Animation(CameraUpdateFactory.newLatLng(latLng)).apply {
             callback = true
             isAnimate = true
@@ -386,8 +414,11 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
         mAnimations.add(animation)
 
         mMap?.let {
-            it.addTileOverlay(TileOverlayOptions().tileProvider(mTileProvider).fadeIn(false))
-            it.setMaxZoomPreference(mTileProvider!!.maximumZoom)
+            // Start loading the tiles of the first viewport in one batch before the overlay requests them one by one
+            mTilePrefetcher?.warmUp(it.projection.visibleRegion.latLngBounds, it.cameraPosition.zoom)
+            mClusterRenderer = ClusterRenderer(applicationContext, it)
+            it.addTileOverlay(TileOverlayOptions().tileProvider(mTileCache).fadeIn(false))
+            it.setMaxZoomPreference(mOverzoomTileProvider!!.maximumZoom)
             it.setMinZoomPreference(mTileProvider!!.minimumZoom)
             it.setOnInfoWindowClickListener(this)
             it.setOnMapClickListener(this)
@@ -410,11 +441,19 @@ class MapControlTower : SVC_MapControlTower(), AnkoLogger, OnMapReadyCallback, O
         }
     }
 
+    private suspend fun createClusterIndex(): ClusterIndex {
+        val selected = flags.flatMap { mMarkerStore.markers(it) }
+        // Markers are never clustered at the highest zoom level
+        val maxZoom = mOverzoomTileProvider!!.maximumZoom.toInt() - 1
+        val minZoom = mTileProvider!!.minimumZoom.toInt().coerceAtMost(maxZoom)
+        return withContext(Default) { ClusterIndex(selected, minZoom, maxZoom) }
+    }
+
     private fun animateCamera(jsonObj: JSONObject?, closest: Boolean = false, execute: Boolean = true) {
         // check if not already animating
         mCameraUpdateAnimator?.let {
             if (!it.isAnimating) {
-                val latLng = getCurrentPosition(applicationContext, mCountryBoundaries, null, flags, jsonObj, mJsonArray)
+                val latLng = getCurrentPosition(applicationContext, mCountryLookup, null, flags, jsonObj, mServerIndex)
                 val animation = Animation(CameraUpdateFactory.newLatLng(latLng)).apply {
                     callback = true
                     isAnimate = true
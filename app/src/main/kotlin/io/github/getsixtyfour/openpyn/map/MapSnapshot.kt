@@ -0,0 +1,150 @@
+package io.github.getsixtyfour.openpyn.map
+
+import android.text.SpannableString
+import androidx.annotation.WorkerThread
+import com.abdeveloper.library.MultiSelectModelExtra
+import com.abdeveloper.library.MultiSelectable
+import io.github.getsixtyfour.openpyn.utils.ServerCatalog
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel.MapMode
+
+/**
+ * The parsed data the map starts from: the country table and the servers with their precomputed marker titles. It is written to a
+ * file after a load from the resources, and read back through a read-only memory mapping on later launches for as long as the
+ * hash of the versions of the resources it was built from is the same, so that a warm start parses no server list. The favorites
+ * change far more often than the servers, so they are not part of it. All values are big-endian, strings are a short length and
+ * UTF-8 bytes:
+ * <pre>
+ * header     int magic, int version, long hash of the versions of the resources
+ * countries  int count, per country: int id, string name, string flag, string emoji
+ * flags      int count, per flag: string flag
+ * names      int count, per country of a server: string name
+ * servers    int count, per server: double latitude, double longitude, short flag, short name, int categories, string title
+ * </pre>
+ *
+ * @author 1951FDG
+ */
+class MapSnapshot(
+    val countries: List<MultiSelectable>,
+    val servers: ServerCatalog,
+    val titles: Array<String>
+) {
+    val size: Int
+        get() = servers.size
+
+    /**
+     * Write the snapshot to a temporary file first, so that a snapshot that failed to write is never read.
+     */
+    @WorkerThread
+    @Throws(IOException::class)
+    fun write(file: File, hash: Long) {
+        val temp = File(file.path + ".tmp")
+        DataOutputStream(temp.outputStream().buffered()).use { out ->
+            out.writeInt(MAGIC)
+            out.writeInt(VERSION)
+            out.writeLong(hash)
+            out.writeInt(countries.size)
+            countries.forEach {
+                val country = it as MultiSelectModelExtra
+                out.writeInt(country.id)
+                writeString(out, country.name.toString())
+                writeString(out, country.tag)
+                writeString(out, country.unicode)
+            }
+            out.writeInt(servers.flagCount)
+            for (id in 0 until servers.flagCount) {
+                writeString(out, servers.flagName(id))
+            }
+            out.writeInt(servers.countryCount)
+            for (id in 0 until servers.countryCount) {
+                writeString(out, servers.countryName(id))
+            }
+            out.writeInt(size)
+            for (i in 0 until size) {
+                out.writeDouble(servers.latitude(i))
+                out.writeDouble(servers.longitude(i))
+                out.writeShort(servers.flagId(i))
+                out.writeShort(servers.countryId(i))
+                out.writeInt(servers.categories(i))
+                writeString(out, titles[i])
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete()
+            throw IOException("could not rename $temp")
+        }
+    }
+
+    override fun toString(): String {
+        return "MapSnapshot{" + "countries=" + countries.size + ", size=" + size + "}"
+    }
+
+    companion object {
+        const val MAGIC = 0x4D534E50 // MSNP
+        const val VERSION = 3
+
+        /**
+         * @return the snapshot in the file, or null if there is none, it was built from other resources or it is not readable
+         */
+        @WorkerThread
+        fun read(file: File, hash: Long): MapSnapshot? {
+            if (!file.exists()) {
+                return null
+            }
+            try {
+                val buffer = RandomAccessFile(file, "r").use { it.channel.map(MapMode.READ_ONLY, 0, it.length()) }
+                if ((buffer.int != MAGIC) || (buffer.int != VERSION) || (buffer.long != hash)) {
+                    return null
+                }
+                val countries = List<MultiSelectable>(buffer.int) {
+                    val id = buffer.int
+                    val name = readString(buffer)
+                    MultiSelectModelExtra(id, SpannableString(name), 0, readString(buffer), readString(buffer))
+                }
+                val flagNames = Array(buffer.int) { readString(buffer) }
+                val countryNames = Array(buffer.int) { readString(buffer) }
+                val size = buffer.int
+                val latitudes = DoubleArray(size)
+                val longitudes = DoubleArray(size)
+                val flags = IntArray(size)
+                val names = IntArray(size)
+                val categories = IntArray(size)
+                val titles = arrayOfNulls<String>(size)
+                for (i in 0 until size) {
+                    latitudes[i] = buffer.double
+                    longitudes[i] = buffer.double
+                    flags[i] = buffer.short.toInt()
+                    names[i] = buffer.short.toInt()
+                    categories[i] = buffer.int
+                    titles[i] = readString(buffer)
+                }
+                val servers = ServerCatalog(latitudes, longitudes, flags, names, categories, flagNames, countryNames)
+                @Suppress("UNCHECKED_CAST")
+                return MapSnapshot(countries, servers, titles as Array<String>)
+            } catch (e: IOException) {
+                return null
+            } catch (e: BufferUnderflowException) {
+                return null
+            } catch (e: IndexOutOfBoundsException) {
+                return null
+            }
+        }
+
+        private fun readString(buffer: ByteBuffer): String {
+            val bytes = ByteArray(buffer.short.toInt() and 0xFFFF)
+            buffer.get(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+
+        private fun writeString(out: DataOutputStream, string: String) {
+            val bytes = string.toByteArray(Charsets.UTF_8)
+            out.writeShort(bytes.size)
+            out.write(bytes)
+        }
+    }
+}
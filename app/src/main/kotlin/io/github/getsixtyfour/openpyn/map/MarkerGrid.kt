@@ -0,0 +1,139 @@
+package io.github.getsixtyfour.openpyn.map
+
+import androidx.annotation.MainThread
+import com.androidmapsextensions.lazy.LazyMarker
+import com.google.android.gms.maps.model.LatLng
+import com.google.android.gms.maps.model.LatLngBounds
+
+/**
+ * A static uniform lat/lng grid over the markers, built once off the main thread. [update] visits only the cells that overlap
+ * the visible region, including both sides of the antimeridian, and toggles only the markers whose visibility changed, through
+ * [scheduler].
+ *
+ * @author 1951FDG
+ */
+class MarkerGrid(markers: Collection<LazyMarker>, private val scheduler: MarkerScheduler) {
+    private val mColumns: Int
+    private val mRows: Int
+    // Index into mMarkers of the first marker in each cell, cells are stored row by row, plus one past the last marker
+    private val mCellStart: IntArray
+    private val mMarkers: Array<LazyMarker>
+    private val mPositions: Array<LatLng>
+    // Generation in which each marker was last found visible
+    private val mSeen: IntArray
+    private val mShown: BooleanArray
+    private var mGeneration = 0
+    // Markers shown by the last update, swapped with mNext after each update
+    private var mShownList: IntArray
+    private var mShownCount = 0
+    private var mNext: IntArray
+
+    init {
+        val size = markers.size
+        val cells = (size / MARKERS_PER_CELL).coerceAtLeast(1)
+        mColumns = Math.ceil(Math.sqrt(cells * 2.0)).toInt().coerceIn(1, MAX_COLUMNS)
+        mRows = (mColumns / 2).coerceAtLeast(1)
+        val positions = markers.map { it.position }
+        val cellOf = IntArray(size) { cell(positions[it]) }
+        // Counting sort by cell
+        mCellStart = IntArray(mColumns * mRows + 1)
+        cellOf.forEach { mCellStart[it + 1]++ }
+        for (i in 1 until mCellStart.size) {
+            mCellStart[i] += mCellStart[i - 1]
+        }
+        val next = mCellStart.copyOf()
+        val order = IntArray(size)
+        cellOf.forEachIndexed { i, cell -> order[next[cell]++] = i }
+        val list = markers.toList()
+        mMarkers = Array(size) { list[order[it]] }
+        mPositions = Array(size) { positions[order[it]] }
+        mSeen = IntArray(size)
+        mShown = BooleanArray(size)
+        mShownList = IntArray(size)
+        mNext = IntArray(size)
+    }
+
+    /**
+     * Show the markers inside [bounds] that pass [filter] and hide the ones shown by the last update that no longer do.
+     *
+     * @param onHide called with each marker that was hidden
+     */
+    @MainThread
+    fun update(bounds: LatLngBounds, filter: (LazyMarker) -> Boolean, onHide: (LazyMarker) -> Unit) {
+        val generation = ++mGeneration
+        var count = 0
+        val bottom = row(bounds.southwest.latitude)
+        val top = row(bounds.northeast.latitude)
+        val left = column(bounds.southwest.longitude)
+        val right = column(bounds.northeast.longitude)
+        // The region crosses the antimeridian when its west edge is east of its east edge
+        val ranges = if (bounds.southwest.longitude <= bounds.northeast.longitude) {
+            intArrayOf(left, right)
+        } else {
+            intArrayOf(left, mColumns - 1, 0, right)
+        }
+        for (row in bottom..top) {
+            for (r in ranges.indices step 2) {
+                for (i in mCellStart[row * mColumns + ranges[r]] until mCellStart[row * mColumns + ranges[r + 1] + 1]) {
+                    val marker = mMarkers[i]
+                    if (bounds.contains(mPositions[i]) && filter(marker)) {
+                        mSeen[i] = generation
+                        mNext[count++] = i
+                        if (!mShown[i]) {
+                            mShown[i] = true
+                            scheduler.setVisible(marker, true)
+                        }
+                    }
+                }
+            }
+        }
+        for (j in 0 until mShownCount) {
+            val i = mShownList[j]
+            if (mSeen[i] != generation) {
+                mShown[i] = false
+                val marker = mMarkers[i]
+                scheduler.setVisible(marker, false)
+                onHide(marker)
+            }
+        }
+        val list = mShownList
+        mShownList = mNext
+        mShownCount = count
+        mNext = list
+    }
+
+    /**
+     * Show a marker right away, outside of [update], so that the next update hides it once it leaves the visible region.
+     */
+    @MainThread
+    fun show(marker: LazyMarker) {
+        val cell = cell(marker.position)
+        for (i in mCellStart[cell] until mCellStart[cell + 1]) {
+            if (mMarkers[i] === marker) {
+                scheduler.setVisibleNow(marker, true)
+                if (!mShown[i]) {
+                    mShown[i] = true
+                    mShownList[mShownCount++] = i
+                }
+                return
+            }
+        }
+    }
+
+    private fun cell(position: LatLng): Int = row(position.latitude) * mColumns + column(position.longitude)
+
+    private fun column(longitude: Double): Int = ((longitude + 180.0) / 360.0 * mColumns).toInt().coerceIn(0, mColumns - 1)
+
+    private fun row(latitude: Double): Int = ((latitude + 90.0) / 180.0 * mRows).toInt().coerceIn(0, mRows - 1)
+
+    override fun toString(): String {
+        return "MarkerGrid{" + "mColumns=" + mColumns + ", mRows=" + mRows + ", mMarkers=" + mMarkers.size + ", mShownCount=" +
+                mShownCount + "}"
+    }
+
+    companion object {
+        // Average number of markers per cell
+        private const val MARKERS_PER_CELL = 4
+        private const val MAX_COLUMNS = 1024
+    }
+}
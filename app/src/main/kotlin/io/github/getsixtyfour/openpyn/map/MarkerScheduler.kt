@@ -0,0 +1,127 @@
+package io.github.getsixtyfour.openpyn.map
+
+import android.view.Choreographer
+import android.view.Choreographer.FrameCallback
+import androidx.annotation.MainThread
+import com.androidmapsextensions.lazy.LazyMarker
+import com.google.android.gms.maps.model.LatLng
+import java.util.IdentityHashMap
+import java.util.PriorityQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Queues marker visibility changes and applies them a few at a time on each frame, within [budgetNanos], so that showing many
+ * markers, each of which creates a GMS marker the first time, does not block the main thread. Changes to the same marker are
+ * coalesced, and a change that undoes a queued one drops it. Hides are applied first, then shows nearest the centre first. The
+ * queue is a heap, so that a frame only orders the changes it applies, and rebuilding it counts against the budget of the frame.
+ *
+ * @author 1951FDG
+ */
+@MainThread
+class MarkerScheduler(private val budgetNanos: Long = DEFAULT_BUDGET) : FrameCallback {
+    private val mPending = IdentityHashMap<LazyMarker, Boolean>()
+    private var mQueue = PriorityQueue<Change>()
+    // Set when markers are added or the centre moves, so the queue is built again on the next frame
+    private var mDirty = false
+    private var mPosted = false
+    private var mCentre: LatLng? = null
+
+    /**
+     * Markers nearest this position are shown first.
+     */
+    fun setCentre(centre: LatLng) {
+        mCentre = centre
+        mDirty = true
+    }
+
+    fun setVisible(marker: LazyMarker, visible: Boolean) {
+        if (marker.isVisible == visible) {
+            mPending.remove(marker)
+            return
+        }
+        if (mPending.put(marker, visible) == null) {
+            mDirty = true
+        }
+        post()
+    }
+
+    /**
+     * Apply the change right away, dropping any queued change to the marker.
+     */
+    fun setVisibleNow(marker: LazyMarker, visible: Boolean) {
+        mPending.remove(marker)
+        if (marker.isVisible != visible) marker.isVisible = visible
+    }
+
+    /**
+     * Drop all the queued changes.
+     */
+    fun cancel() {
+        mPending.clear()
+        mQueue.clear()
+        if (mPosted) {
+            mPosted = false
+            Choreographer.getInstance().removeFrameCallback(this)
+        }
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        mPosted = false
+        val deadline = System.nanoTime() + budgetNanos
+        if (mDirty) {
+            mDirty = false
+            mQueue = queue()
+        }
+        while (true) {
+            val marker = mQueue.poll()?.marker ?: break
+            // Skip markers whose change was dropped or already applied
+            val visible = mPending.remove(marker) ?: continue
+            if (marker.isVisible != visible) marker.isVisible = visible
+            if (System.nanoTime() >= deadline) {
+                break
+            }
+        }
+        if (mPending.isNotEmpty()) {
+            post()
+        }
+    }
+
+    private fun post() {
+        if (!mPosted) {
+            mPosted = true
+            Choreographer.getInstance().postFrameCallback(this)
+        }
+    }
+
+    private fun queue(): PriorityQueue<Change> {
+        val centre = mCentre
+        // Heapified in linear time, rather than sorted
+        return PriorityQueue(mPending.map { (marker, visible) ->
+            Change(marker, visible, if (centre != null) distanceSquared(marker.position, centre) else 0.0)
+        })
+    }
+
+    override fun toString(): String {
+        return "MarkerScheduler{" + "mPending=" + mPending.size + ", budgetNanos=" + budgetNanos + "}"
+    }
+
+    // Hides before shows, then nearest the centre first
+    private class Change(val marker: LazyMarker, val visible: Boolean, val distance: Double) : Comparable<Change> {
+        override fun compareTo(other: Change): Int {
+            return if (visible != other.visible) visible.compareTo(other.visible) else distance.compareTo(other.distance)
+        }
+    }
+
+    companion object {
+        // A quarter of a 60 Hz frame
+        private val DEFAULT_BUDGET = TimeUnit.MILLISECONDS.toNanos(4)
+
+        // Distance in degrees, across the antimeridian if that is shorter
+        private fun distanceSquared(a: LatLng, b: LatLng): Double {
+            val latitude = a.latitude - b.latitude
+            var longitude = Math.abs(a.longitude - b.longitude)
+            if (longitude > 180.0) longitude = 360.0 - longitude
+            return latitude * latitude + longitude * longitude
+        }
+    }
+}
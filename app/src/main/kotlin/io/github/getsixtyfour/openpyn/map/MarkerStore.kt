@@ -0,0 +1,110 @@
+package io.github.getsixtyfour.openpyn.map
+
+import androidx.annotation.MainThread
+import com.androidmapsextensions.lazy.LazyMarker
+import com.androidmapsextensions.lazy.LazyMarker.OnLevelChangeCallback
+import com.google.android.gms.maps.model.LatLng
+import java.util.IdentityHashMap
+
+/**
+ * The markers by position, with the selected marker, the markers of each level and the markers of each flag kept up to date,
+ * so that none of the lookups scan the markers. Level changes must go through [setLevel], [select] and [deselect], or through
+ * this store as the [OnLevelChangeCallback] of a marker, which forwards them to [callback] to update the icon and z-index.
+ *
+ * @author 1951FDG
+ */
+@MainThread
+class MarkerStore(private val markers: Map<LatLng, LazyMarker>, private val callback: OnLevelChangeCallback) :
+    OnLevelChangeCallback {
+    private val mFlags = HashMap<Any?, MutableList<LazyMarker>>()
+    private val mLevels = HashMap<Int, MutableSet<LazyMarker>>()
+    private val mLevelOf = IdentityHashMap<LazyMarker, Int>(markers.size)
+
+    /**
+     * The marker shown as selected, at level [SELECTED], or null if there is none.
+     */
+    var selected: LazyMarker? = null
+        private set
+
+    init {
+        markers.values.forEach {
+            mFlags.getOrPut(it.tag) { ArrayList() }.add(it)
+            track(it, it.level)
+        }
+    }
+
+    operator fun get(position: LatLng): LazyMarker? = markers[position]
+
+    /**
+     * @return the number of markers with this flag
+     */
+    fun count(flag: Any?): Int = mFlags[flag]?.size ?: 0
+
+    /**
+     * @return the markers with this flag
+     */
+    fun markers(flag: Any?): List<LazyMarker> = mFlags[flag] ?: emptyList()
+
+    /**
+     * @return the markers at this level, such as [FAVORITE]
+     */
+    fun markersAtLevel(level: Int): Set<LazyMarker> = mLevels[level] ?: emptySet()
+
+    fun isFavorite(marker: LazyMarker): Boolean = mLevelOf[marker] == FAVORITE
+
+    /**
+     * Set the level of the marker without changing how it is drawn, so a selected marker stays drawn as selected.
+     */
+    fun setLevel(marker: LazyMarker, level: Int) {
+        marker.setLevel(level, null)
+        track(marker, level)
+    }
+
+    /**
+     * Draw the marker as selected, and the previously selected marker, if any, at its own level again.
+     */
+    fun select(marker: LazyMarker) {
+        if (selected !== marker) {
+            deselect()
+        }
+        onLevelChange(marker, SELECTED)
+    }
+
+    /**
+     * Draw the selected marker, if any, at its own level again.
+     *
+     * @return the marker that was selected
+     */
+    fun deselect(): LazyMarker? {
+        return selected?.also { it.setLevel(it.level, this) }
+    }
+
+    override fun onLevelChange(marker: LazyMarker, level: Int) {
+        callback.onLevelChange(marker, level)
+        if (level == SELECTED) {
+            selected = marker
+        } else {
+            if (selected === marker) {
+                selected = null
+            }
+            track(marker, level)
+        }
+    }
+
+    private fun track(marker: LazyMarker, level: Int) {
+        val previous = mLevelOf.put(marker, level)
+        if (previous != level) {
+            previous?.let { mLevels[it]?.remove(marker) }
+            mLevels.getOrPut(level) { HashSet() }.add(marker)
+        }
+    }
+
+    override fun toString(): String {
+        return "MarkerStore{" + "markers=" + markers.size + ", mFlags=" + mFlags.size + ", selected=" + selected + "}"
+    }
+
+    companion object {
+        const val FAVORITE = 1
+        const val SELECTED = 10
+    }
+}
@@ -0,0 +1,268 @@
+package io.github.getsixtyfour.openpyn.map
+
+import androidx.annotation.WorkerThread
+import com.google.android.gms.maps.model.LatLng
+import io.github.getsixtyfour.openpyn.utils.ServerCatalog
+import java.util.BitSet
+
+/**
+ * A k-d tree over the server locations, as points on the unit sphere, so that the nearest servers by great-circle distance are
+ * the nearest by chord length. The tree is implicit, each range of the arrays is a subtree whose median is its root, and each
+ * node also holds the union of the categories below it, so subtrees without a wanted category are skipped. Queries do not
+ * allocate once a thread has made its first query.
+ *
+ * @author 1951FDG
+ */
+class ServerIndex @WorkerThread constructor(private val catalog: ServerCatalog) {
+    private val mSize = catalog.size
+    private val mX = DoubleArray(mSize)
+    private val mY = DoubleArray(mSize)
+    private val mZ = DoubleArray(mSize)
+    private val mLatitudes = DoubleArray(mSize) { catalog.latitude(it) }
+    private val mLongitudes = DoubleArray(mSize) { catalog.longitude(it) }
+    private val mFlags = IntArray(mSize) { catalog.flagId(it) }
+    private val mCategories = IntArray(mSize) { catalog.categories(it) }
+    // Union of the categories of each subtree, stored at its root
+    private val mSubtreeCategories = IntArray(mSize)
+    // Index of each server in the catalog
+    private val mPositions = IntArray(mSize)
+    private val mSearch = object : ThreadLocal<Search>() {
+        override fun initialValue() = Search()
+    }
+
+    val size: Int
+        get() = mSize
+
+    init {
+        for (i in 0 until mSize) {
+            val phi = Math.toRadians(mLatitudes[i])
+            val lambda = Math.toRadians(mLongitudes[i])
+            mX[i] = Math.cos(phi) * Math.cos(lambda)
+            mY[i] = Math.cos(phi) * Math.sin(lambda)
+            mZ[i] = Math.sin(phi)
+            mPositions[i] = i
+        }
+        build(0, mSize, 0)
+    }
+
+    /**
+     * @return the flags as a set for [nearest], flags no server has are left out
+     */
+    fun flagSet(flags: Collection<CharSequence>): BitSet {
+        val set = BitSet(catalog.flagCount)
+        flags.forEach {
+            val id = catalog.flagIdOf(it)
+            if (id >= 0) set.set(id)
+        }
+        return set
+    }
+
+    /**
+     * @return the flag id for [nearest], or -1 if no server has the flag
+     */
+    fun flagId(flag: CharSequence): Int = catalog.flagIdOf(flag)
+
+    /**
+     * @return the index of the nearest server, or -1 if no server matches
+     */
+    fun nearest(latitude: Double, longitude: Double, flags: BitSet? = null, categories: Int = ANY): Int {
+        val search = mSearch.get()!!
+        search.begin(latitude, longitude, 1, flags, NO_FLAG, categories)
+        search(search, 0, mSize, 0)
+        return if (search.count > 0) search.indices[0] else -1
+    }
+
+    /**
+     * @param flag the id of the only flag wanted, from [flagId]
+     * @return the index of the nearest server, or -1 if no server matches
+     */
+    fun nearest(latitude: Double, longitude: Double, flag: Int, categories: Int = ANY): Int {
+        if (flag < 0) {
+            return -1
+        }
+        val search = mSearch.get()!!
+        search.begin(latitude, longitude, 1, null, flag, categories)
+        search(search, 0, mSize, 0)
+        return if (search.count > 0) search.indices[0] else -1
+    }
+
+    /**
+     * Find the nearest servers, nearest first.
+     *
+     * @param result filled with the indexes of up to its size nearest servers
+     * @return the number of servers found
+     */
+    fun nearest(latitude: Double, longitude: Double, result: IntArray, flags: BitSet? = null, categories: Int = ANY): Int {
+        if (result.isEmpty()) {
+            return 0
+        }
+        val search = mSearch.get()!!
+        search.begin(latitude, longitude, result.size, flags, NO_FLAG, categories)
+        search(search, 0, mSize, 0)
+        System.arraycopy(search.indices, 0, result, 0, search.count)
+        return search.count
+    }
+
+    fun flag(index: Int): String = catalog.flagName(mFlags[index])
+
+    fun latitude(index: Int): Double = mLatitudes[index]
+
+    fun longitude(index: Int): Double = mLongitudes[index]
+
+    fun latLng(index: Int): LatLng = LatLng(mLatitudes[index], mLongitudes[index])
+
+    /**
+     * @return the index of the server in the catalog
+     */
+    fun position(index: Int): Int = mPositions[index]
+
+    private fun build(from: Int, to: Int, depth: Int) {
+        if (from >= to) {
+            return
+        }
+        val mid = (from + to) ushr 1
+        select(from, to - 1, mid, depth % 3)
+        build(from, mid, depth + 1)
+        build(mid + 1, to, depth + 1)
+        var categories = mCategories[mid]
+        if (from < mid) categories = categories or mSubtreeCategories[(from + mid) ushr 1]
+        if (mid + 1 < to) categories = categories or mSubtreeCategories[(mid + 1 + to) ushr 1]
+        mSubtreeCategories[mid] = categories
+    }
+
+    // Quickselect, so that the k-th element by the axis is in place with smaller ones before it and larger ones after it
+    private fun select(from: Int, to: Int, k: Int, axis: Int) {
+        var left = from
+        var right = to
+        while (left < right) {
+            val pivot = coordinate((left + right) ushr 1, axis)
+            var i = left
+            var j = right
+            while (i <= j) {
+                while (coordinate(i, axis) < pivot) i++
+                while (coordinate(j, axis) > pivot) j--
+                if (i <= j) {
+                    swap(i++, j--)
+                }
+            }
+            if (k <= j) right = j else if (k >= i) left = i else return
+        }
+    }
+
+    private fun search(search: Search, from: Int, to: Int, depth: Int) {
+        if (from >= to) {
+            return
+        }
+        val mid = (from + to) ushr 1
+        if (search.categories != ANY && (mSubtreeCategories[mid] and search.categories) == 0) {
+            return
+        }
+        val dx = mX[mid] - search.x
+        val dy = mY[mid] - search.y
+        val dz = mZ[mid] - search.z
+        if ((search.categories == ANY || (mCategories[mid] and search.categories) != 0) &&
+            (search.flag == NO_FLAG || mFlags[mid] == search.flag) && (search.flags?.get(mFlags[mid]) != false)) {
+            search.offer(mid, dx * dx + dy * dy + dz * dz)
+        }
+        val delta = when (depth % 3) {
+            0 -> search.x - mX[mid]
+            1 -> search.y - mY[mid]
+            else -> search.z - mZ[mid]
+        }
+        // Visit the side of the query first, the other side only if it may hold a nearer server
+        if (delta < 0) {
+            search(search, from, mid, depth + 1)
+            if (delta * delta < search.bound()) search(search, mid + 1, to, depth + 1)
+        } else {
+            search(search, mid + 1, to, depth + 1)
+            if (delta * delta < search.bound()) search(search, from, mid, depth + 1)
+        }
+    }
+
+    private fun coordinate(i: Int, axis: Int): Double = when (axis) {
+        0 -> mX[i]
+        1 -> mY[i]
+        else -> mZ[i]
+    }
+
+    private fun swap(i: Int, j: Int) {
+        swap(mX, i, j)
+        swap(mY, i, j)
+        swap(mZ, i, j)
+        swap(mLatitudes, i, j)
+        swap(mLongitudes, i, j)
+        swap(mFlags, i, j)
+        swap(mCategories, i, j)
+        swap(mPositions, i, j)
+    }
+
+    override fun toString(): String {
+        return "ServerIndex{" + "mSize=" + mSize + ", catalog=" + catalog + "}"
+    }
+
+    // The state of one query, reused by the queries of a thread
+    private class Search {
+        var x = 0.0
+        var y = 0.0
+        var z = 0.0
+        var flags: BitSet? = null
+        var flag = NO_FLAG
+        var categories = ANY
+        var count = 0
+        private var k = 0
+        var indices = IntArray(1)
+        private var distances = DoubleArray(1)
+
+        fun begin(latitude: Double, longitude: Double, k: Int, flags: BitSet?, flag: Int, categories: Int) {
+            val phi = Math.toRadians(latitude)
+            val lambda = Math.toRadians(longitude)
+            x = Math.cos(phi) * Math.cos(lambda)
+            y = Math.cos(phi) * Math.sin(lambda)
+            z = Math.sin(phi)
+            this.k = k
+            this.flags = flags
+            this.flag = flag
+            this.categories = categories
+            count = 0
+            if (indices.size < k) {
+                indices = IntArray(k)
+                distances = DoubleArray(k)
+            }
+        }
+
+        // The squared distance a server must be within to be among the k nearest, k is at least 1
+        fun bound(): Double = if (count < k) Double.MAX_VALUE else distances[count - 1]
+
+        fun offer(index: Int, distance: Double) {
+            if (count == k && distance >= distances[count - 1]) {
+                return
+            }
+            // Insertion into the sorted candidates
+            var i = if (count < k) count++ else count - 1
+            while (i > 0 && distances[i - 1] > distance) {
+                distances[i] = distances[i - 1]
+                indices[i] = indices[i - 1]
+                i--
+            }
+            distances[i] = distance
+            indices[i] = index
+        }
+    }
+
+    companion object {
+        const val ANY = 0
+        private const val NO_FLAG = -1
+
+        private fun swap(array: DoubleArray, i: Int, j: Int) {
+            val t = array[i]
+            array[i] = array[j]
+            array[j] = t
+        }
+
+        private fun swap(array: IntArray, i: Int, j: Int) {
+            val t = array[i]
+            array[i] = array[j]
+            array[j] = t
+        }
+    }
+}
@@ -18,6 +18,7 @@ import com.androidmapsextensions.lazy.LazyMarker
 import com.androidmapsextensions.lazy.LazyMarker.OnLevelChangeCallback
 import com.antoniocarlon.map.CameraUpdateAnimator.Animation
 import com.cocoahero.android.gmaps.addons.mapbox.MapBoxOfflineTileProvider
+import com.cocoahero.android.gmaps.addons.mapbox.TileStores
 import com.getsixtyfour.openvpnmgmt.android.security.SecurityManager
 import com.google.android.gms.maps.CameraUpdateFactory
 import com.google.android.gms.maps.GoogleMap
@@ -29,23 +30,22 @@ import com.jayrave.moshi.pristineModels.PristineModelsJsonAdapterFactory
 import com.mayurrokade.minibar.UserMessage
 import com.squareup.moshi.FromJson
 import com.squareup.moshi.JsonAdapter
+import com.squareup.moshi.JsonDataException
 import com.squareup.moshi.Moshi
 import com.squareup.moshi.ToJson
 import com.squareup.moshi.Types
 import de.jupf.staticlog.Log
-import de.westnordost.countryboundaries.CountryBoundaries
 import io.github.getsixtyfour.openpyn.R
 import io.github.getsixtyfour.openpyn.logException
 import io.github.getsixtyfour.openpyn.utils.CITY
-import io.github.getsixtyfour.openpyn.utils.COUNTRY
 import io.github.getsixtyfour.openpyn.utils.FLAG
 import io.github.getsixtyfour.openpyn.utils.IP
 import io.github.getsixtyfour.openpyn.utils.LAT
-import io.github.getsixtyfour.openpyn.utils.LOCATION
 import io.github.getsixtyfour.openpyn.utils.LONG
 import io.github.getsixtyfour.openpyn.utils.MultiSelectMapper
 import io.github.getsixtyfour.openpyn.utils.NetworkInfo
 import io.github.getsixtyfour.openpyn.utils.PrintArray
+import io.github.getsixtyfour.openpyn.utils.ServerCatalog
 import io.github.getsixtyfour.openpyn.utils.THREAT
 import io.github.getsixtyfour.openpyn.utils.createJson2
 import io.ktor.client.HttpClient
@@ -56,6 +56,7 @@ import io.ktor.client.response.HttpResponse
 import io.ktor.client.response.readText
 import kotlinx.coroutines.TimeoutCancellationException
 import kotlinx.coroutines.withTimeout
+import okio.Okio
 import org.jetbrains.anko.alert
 import org.jetbrains.anko.dip
 import org.jetbrains.anko.linearLayout
@@ -63,8 +64,6 @@ import org.jetbrains.anko.padding
 import org.jetbrains.anko.textColor
 import org.jetbrains.anko.textView
 import org.jetbrains.anko.verticalLayout
-import org.json.JSONArray
-import org.json.JSONException
 import org.json.JSONObject
 import java.io.File
 import java.io.FileNotFoundException
@@ -75,6 +74,8 @@ import kotlin.math.pow
 
 const val TIME_MILLIS: Long = 600
 const val DURATION: Long = 7000
+private const val NANOS_PER_MILLI = 1000000f
+private const val SNAPSHOT_FILE = "map.snapshot"
 
 // private const val TASK_TIMEOUT: Long = 500
 @Suppress("ComplexMethod", "MagicNumber")
@@ -281,9 +282,16 @@ fun memoryBackedTileProvider(): MapBoxOfflineTileProvider {
     return tileProvider
 }
 
-fun getCountryBoundaries(context: Context): CountryBoundaries? {
+fun configuredTileProvider(context: Context): MapBoxOfflineTileProvider {
+    // Use the tile store backend configured for this device
+    val tileProvider = MapBoxOfflineTileProvider(TileStores.open(context, context.getString(R.string.tile_store), "world"))
+    Log.debug(tileProvider.toString())
+    return tileProvider
+}
+
+fun getCountryCells(context: Context): CountryCells? {
     try {
-        return CountryBoundaries.load(context.assets.open("boundaries.ser"))
+        return CountryCells(context.assets.openFd("boundaries.cells"))
     } catch (e: FileNotFoundException) {
         logException(e)
     } catch (e: IOException) {
@@ -293,82 +301,51 @@ fun getCountryBoundaries(context: Context): CountryBoundaries? {
     return null
 }
 
+/**
+ * Check the location of every server against the boundaries of the country of its flag, logging the servers that are not in it.
+ */
+@WorkerThread
+fun validateServers(countries: CountryLookup, servers: ServerIndex) {
+    val longitudes = DoubleArray(servers.size) { servers.longitude(it) }
+    val latitudes = DoubleArray(servers.size) { servers.latitude(it) }
+    countries.getIds(longitudes, latitudes).forEachIndexed { index, ids ->
+        val flag = servers.flag(index)
+        if (ids.none { it.equals(flag, ignoreCase = true) }) {
+            Log.warn("$flag server at " + servers.latLng(index) + " is in " + ids.joinToString())
+        }
+    }
+}
+
 @Suppress("ComplexMethod")
 fun getCurrentPosition(
     context: Context,
-    countryBoundaries: CountryBoundaries?,
+    countries: CountryLookup?,
     lastLocation: Location?,
     flags: HashSet<CharSequence>,
     jsonObj: JSONObject?,
-    jsonArr: JSONArray? = null
+    servers: ServerIndex? = null
 ): LatLng {
     @Suppress("MagicNumber")
     fun getDefaultLatLng(): LatLng {
         return LatLng(51.514125, -0.093689)
     }
 
-    fun getLatLng(flag: CharSequence, latLng: LatLng, jsonArr: JSONArray): LatLng {
-        val latLngList = arrayListOf<LatLng>()
-        var match = false
-
-        loop@ for (res in jsonArr) {
-            val pass = flag == res.getString(FLAG)
-
-            if (pass) {
-                val location = res.getJSONObject(LOCATION)
-                val element = LatLng(
-                    location.getDouble(LAT), location.getDouble(LONG)
-                )
-
-                match = element == latLng
-                when {
-                    match -> break@loop
-                    else -> latLngList.add(element)
-                }
-            }
-        }
-
-        if (latLngList.isNotEmpty() && !match) {
-            val results = FloatArray(latLngList.size)
-
-            latLngList.withIndex().forEach { (index, it) ->
-                val result = FloatArray(1)
-                Location.distanceBetween(latLng.latitude, latLng.longitude, it.latitude, it.longitude, result)
-                results[index] = result[0]
-            }
-            val result = results.min()
-            if (result != null) {
-                val index = results.indexOf(result)
-                return latLngList[index]
-            }
-        }
-
-        return latLng
+    fun getLatLng(flag: CharSequence, latLng: LatLng, servers: ServerIndex): LatLng {
+        val index = servers.nearest(latLng.latitude, latLng.longitude, servers.flagId(flag))
+        return if (index >= 0) servers.latLng(index) else latLng
     }
 
-    fun latLng(jsonArr: JSONArray?, flags: HashSet<CharSequence>, flag: CharSequence, lat: Double, lon: Double): LatLng = when {
-        jsonArr != null && flags.contains(flag) -> getLatLng(flag, LatLng(lat, lon), jsonArr)
+    fun latLng(servers: ServerIndex?, flags: HashSet<CharSequence>, flag: CharSequence, lat: Double, lon: Double): LatLng = when {
+        servers != null && flags.contains(flag) -> getLatLng(flag, LatLng(lat, lon), servers)
         else -> LatLng(lat, lon)
     }
 
-    fun getString(ids: List<String>?): String = when {
-        ids.isNullOrEmpty() -> "is nowhere"
-        else -> "is in " + ids.joinToString()
-    }
-
     fun getFlag(list: List<String>?): String = when {
         list != null && list.isNotEmpty() -> list[0].toLowerCase(Locale.ROOT)
         else -> ""
     }
 
-    fun getFLag(countryBoundaries: CountryBoundaries?, lon: Double, lat: Double): String {
-        var t = System.nanoTime()
-        val ids = countryBoundaries?.getIds(lon, lat)
-        t = System.nanoTime() - t
-        @Suppress("MagicNumber") val i = 1000
-        Log.debug(getString(ids) + " (in " + "%.3f".format(t / i / i.toFloat()) + "ms)")
-        return getFlag(ids)
-    }
+    fun getFLag(countries: CountryLookup?, lon: Double, lat: Double): String = getFlag(countries?.getIds(lon, lat))
 
     var latLng = getDefaultLatLng()
 
@@ -378,13 +355,13 @@ fun getCurrentPosition(
             val lon = jsonObj.getDouble(LONG)
             val flag = jsonObj.getString(FLAG)
             Log.debug("is in $flag")
-            latLng = latLng(jsonArr, flags, flag, lat, lon)
+            latLng = latLng(servers, flags, flag, lat, lon)
         }
-        jsonArr != null -> lastLocation?.let {
+        servers != null -> lastLocation?.let {
             val lat = it.latitude
             val lon = it.longitude
-            val flag = getFLag(countryBoundaries, lon, lat)
-            latLng = latLng(jsonArr, flags, flag, lat, lon)
+            val flag = getFLag(countries, lon, lat)
+            latLng = latLng(servers, flags, flag, lat, lon)
         }
 /*
         ContextCompat.checkSelfPermission(
@@ -396,8 +373,8 @@ fun getCurrentPosition(
                 Tasks.await(task, TASK_TIMEOUT, TimeUnit.MILLISECONDS)?.let {
                     val lat = it.latitude
                     val lon = it.longitude
-                    val flag = getFLag(countryBoundaries, lon, lat)
-                    latLng = latLng(jsonArr, flags, flag, lat, lon)
+                    val flag = getFLag(countries, lon, lat)
+                    latLng = latLng(servers, flags, flag, lat, lon)
                 }
             } catch (e: ExecutionException) {
                 Log.error(e.toString())
@@ -413,8 +390,6 @@ fun getCurrentPosition(
     return latLng
 }
 
-operator fun JSONArray.iterator(): Iterator<JSONObject> = (0 until length()).asSequence().map { get(it) as JSONObject }.iterator()
-
 fun createCameraUpdates(): ArrayList<Animation> {
     // Load all map tiles
     @Suppress("MagicNumber") val z = 3
@@ -435,23 +410,11 @@ fun createCameraUpdates(): ArrayList<Animation> {
 }
 
 fun createMarkers(
-    context: Context,
-    jsonArray: JSONArray,
-    countries: List<MultiSelectable>,
     map: GoogleMap,
-    favorites: ArrayList<LazyMarker>?,
+    snapshot: MapSnapshot,
+    favorites: List<LazyMarker>,
     callback: OnLevelChangeCallback
 ): Pair<HashSet<CharSequence>, HashMap<LatLng, LazyMarker>> {
-    fun parseToUnicode(countries: List<MultiSelectable>, input: CharSequence): CharSequence {
-        // Replace the aliases by their unicode
-        var result = input
-        val emoji = countries.find { (it as? MultiSelectModelExtra)?.tag == input } as? MultiSelectModelExtra
-        if (emoji != null) {
-            result = emoji.unicode
-        }
-
-        return result
-    }
     // fun netflix(flag: CharSequence?): Boolean = when (flag) {
     //     "us" -> true
     //     "ca" -> true
@@ -462,10 +425,12 @@ fun createMarkers(
     //     "mx" -> true
     //     else -> false
     // }
-    val length = jsonArray.length()
+    val length = snapshot.size
     val flags = HashSet<CharSequence>(length)
     val markers = HashMap<LatLng, LazyMarker>(length)
     val iconDescriptor = BitmapDescriptorFactory.fromResource(R.drawable.map1)
+    // Favorites are equal to the marker at the same position
+    val levels = favorites.associateBy({ it.position }, { it.level })
     // val preferences: SharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
     // val netflix = preferences.getBoolean("pref_netflix", false)
     // val dedicated = preferences.getBoolean("pref_dedicated", false)
@@ -473,8 +438,8 @@ fun createMarkers(
     // val obfuscated = preferences.getBoolean("pref_anti_ddos", false)
     // val onion = preferences.getBoolean("pref_tor", false)
     // val p2p = preferences.getBoolean("pref_p2p", false)
-    for (res in jsonArray) {
-        val flag = res.getString(FLAG)
+    for (i in 0 until length) {
+        val flag = snapshot.servers.flag(i)
         // var pass = when {
         //     netflix -> netflix(flag)
         //     dedicated -> false
@@ -507,11 +472,8 @@ fun createMarkers(
         // if (!pass) {
         //     continue
         // }
-        val country = res.getString(COUNTRY)
-        val emoji = parseToUnicode(countries, flag)
-        val location = res.getJSONObject(LOCATION)
-        val latLng = LatLng(location.getDouble(LAT), location.getDouble(LONG))
-        val title = context.getString(R.string.title_marker, emoji, country)
+        val latLng = LatLng(snapshot.servers.latitude(i), snapshot.servers.longitude(i))
+        val title = snapshot.titles[i]
         val options = MarkerOptions().apply {
             flat(true)
             position(latLng)
@@ -522,11 +484,8 @@ fun createMarkers(
 
         flags.add(flag)
         val marker = LazyMarker(map, options, flag)
-        favorites?.let {
-            val index = it.indexOf(marker)
-            if (index >= 0) {
-                marker.setLevel(it[index].level, callback)
-            }
+        levels[latLng]?.let {
+            marker.setLevel(it, callback)
         }
         markers[latLng] = marker
     }
@@ -601,7 +560,7 @@ private fun copyToExternalFilesDir(context: Context, list: List<Pair<Int, String
     }
 }
 
-fun jsonArray(context: Context, id: Int, ext: String): JSONArray {
+fun serverCatalog(context: Context, id: Int, ext: String): ServerCatalog {
     fun logDifference(set: Set<CharSequence>, string: CharSequence) {
         set.forEach {
             val message = "$string $it"
@@ -610,41 +569,37 @@ fun jsonArray(context: Context, id: Int, ext: String): JSONArray {
         }
     }
 
-    val jsonArray = createJsonArray(context, id, ext)
+    val servers = createServerCatalog(context, id, ext)
     val set1 = context.resources.getTextArray(R.array.pref_country_values).toHashSet()
     val set2 = hashSetOf<CharSequence>()
 
-    for (res in jsonArray) {
-        val flag = res.getString(FLAG)
-        set2.add(flag)
+    for (i in 0 until servers.flagCount) {
+        set2.add(servers.flagName(i))
     }
     // Log old countries, if any
     logDifference(set1.subtract(set2), "old")
     // Log new countries, if any
     logDifference(set2.subtract(set1), "new")
-    return jsonArray
+    return servers
 }
 
-fun createJsonArray(context: Context, id: Int, ext: String): JSONArray {
+fun createServerCatalog(context: Context, id: Int, ext: String): ServerCatalog {
     try {
         val file = File(context.getExternalFilesDir(null), context.resources.getResourceEntryName(id) + ext)
         if (!file.exists()) {
             copyRawResourceToFile(context, id, file)
         }
-        val json = file.bufferedReader().use {
-            it.readText()
-        }
-        return JSONArray(json)
+        return Okio.buffer(Okio.source(file)).use { ServerCatalog.parse(it) }
     } catch (e: NotFoundException) {
         logException(e)
     } catch (e: FileNotFoundException) {
         logException(e)
     } catch (e: IOException) {
         logException(e)
-    } catch (e: JSONException) {
+    } catch (e: JsonDataException) {
         logException(e)
     }
-    return JSONArray()
+    return ServerCatalog.Builder().build()
 }
 
 private fun copyRawResourceToFile(context: Context, id: Int, file: File) {
@@ -655,6 +610,57 @@ private fun copyRawResourceToFile(context: Context, id: Int, file: File) {
     }
 }
 
+/**
+ * Read the map data from the snapshot written by an earlier launch, or load it from the resources and write a new snapshot when
+ * there is none or the app, the stored server list or the marker title have changed since.
+ */
+@WorkerThread
+fun loadMapSnapshot(context: Context): MapSnapshot {
+    var t = System.nanoTime()
+    val file = File(context.cacheDir, SNAPSHOT_FILE)
+    val hash = mapSnapshotHash(context)
+    val snapshot = MapSnapshot.read(file, hash) ?: createMapSnapshot(context).also {
+        try {
+            it.write(file, hash)
+        } catch (e: IOException) {
+            logException(e)
+        }
+    }
+    t = System.nanoTime() - t
+    Log.debug(snapshot.toString() + " (in " + "%.3f".format(t / NANOS_PER_MILLI) + "ms)")
+    return snapshot
+}
+
+@WorkerThread
+fun createMapSnapshot(context: Context): MapSnapshot {
+    val countries = countryList(context, R.raw.emojis)
+    val servers = serverCatalog(context, R.raw.nordvpn, ".json")
+    val emojis = HashMap<String, String>(countries.size)
+    countries.forEach { (it as? MultiSelectModelExtra)?.let { country -> emojis[country.tag] = country.unicode } }
+    // Replace the aliases by their unicode
+    val titles = Array(servers.size) {
+        val flag = servers.flag(it)
+        context.getString(R.string.title_marker, emojis[flag] ?: flag, servers.country(it))
+    }
+    return MapSnapshot(countries, servers, titles)
+}
+
+/**
+ * @return a hash of the versions of everything the snapshot is built from, so that a warm start reads none of it: the resources
+ * by the time the app was last installed or updated, and the stored server list by its length and modification time, which
+ * ServerSync keeps as they are while the list is unchanged. Without a stored list the servers are those of the resources, the
+ * list is then copied from them and the next launch builds the snapshot once more.
+ */
+private fun mapSnapshotHash(context: Context): Long {
+    val file = File(context.getExternalFilesDir(null), context.resources.getResourceEntryName(R.raw.nordvpn) + ".json")
+    var hash = context.packageManager.getPackageInfo(context.packageName, 0).lastUpdateTime
+    hash = 31 * hash + file.length()
+    hash = 31 * hash + file.lastModified()
+    // The marker title depends on the locale
+    hash = 31 * hash + context.getString(R.string.title_marker).hashCode()
+    return hash
+}
+
 @Suppress("TooGenericExceptionCaught")
 @SuppressLint("WrongThread")
 @WorkerThread
@@ -0,0 +1,269 @@
+package io.github.getsixtyfour.openpyn.utils
+
+import com.squareup.moshi.JsonReader
+import com.squareup.moshi.JsonWriter
+import de.jupf.staticlog.Log
+import okio.Buffer
+import okio.BufferedSink
+import okio.BufferedSource
+import java.io.IOException
+import java.util.Locale
+
+/**
+ * The servers as parallel primitive arrays, with the flags and the countries interned into tables, parsed in one pass with a
+ * streaming [JsonReader] so that no JSON objects are built. Servers at the same location are merged into one server with the
+ * categories of all of them, which is how the server list is stored.
+ *
+ * @author 1951FDG
+ */
+class ServerCatalog(
+    latitudes: DoubleArray,
+    longitudes: DoubleArray,
+    flags: IntArray,
+    countries: IntArray,
+    categories: IntArray,
+    flagNames: Array<String>,
+    countryNames: Array<String>
+) {
+    private val mLatitudes = latitudes
+    private val mLongitudes = longitudes
+    // Index of the flag of each server in mFlagNames
+    private val mFlags = flags
+    // Index of the country of each server in mCountryNames
+    private val mCountries = countries
+    private val mCategories = categories
+    private val mFlagNames = flagNames
+    private val mCountryNames = countryNames
+    private val mFlagIds = HashMap<String, Int>(flagNames.size).also { map -> flagNames.forEachIndexed { i, s -> map[s] = i } }
+
+    val size: Int
+        get() = mLatitudes.size
+
+    val flagCount: Int
+        get() = mFlagNames.size
+
+    val countryCount: Int
+        get() = mCountryNames.size
+
+    fun latitude(index: Int): Double = mLatitudes[index]
+
+    fun longitude(index: Int): Double = mLongitudes[index]
+
+    fun flag(index: Int): String = mFlagNames[mFlags[index]]
+
+    fun flagId(index: Int): Int = mFlags[index]
+
+    /**
+     * @return the id of the flag, or -1 if no server has it
+     */
+    fun flagIdOf(flag: CharSequence): Int = mFlagIds[flag.toString()] ?: -1
+
+    fun flagName(id: Int): String = mFlagNames[id]
+
+    fun country(index: Int): String = mCountryNames[mCountries[index]]
+
+    fun countryId(index: Int): Int = mCountries[index]
+
+    fun countryName(id: Int): String = mCountryNames[id]
+
+    /**
+     * @return the categories of the server as a mask of CATEGORY_ values
+     */
+    fun categories(index: Int): Int = mCategories[index]
+
+    /**
+     * @return the servers ordered by country, then by latitude and longitude
+     */
+    fun sorted(): ServerCatalog {
+        val order = (0 until size).sortedWith(compareBy<Int>({ country(it) }, { mLatitudes[it] }, { mLongitudes[it] }))
+        return ServerCatalog(
+            DoubleArray(size) { mLatitudes[order[it]] },
+            DoubleArray(size) { mLongitudes[order[it]] },
+            IntArray(size) { mFlags[order[it]] },
+            IntArray(size) { mCountries[order[it]] },
+            IntArray(size) { mCategories[order[it]] },
+            mFlagNames,
+            mCountryNames
+        )
+    }
+
+    /**
+     * Write the servers in the format of the server list.
+     */
+    @Throws(IOException::class)
+    fun writeJson(sink: BufferedSink, indent: String = "") {
+        val writer = JsonWriter.of(sink)
+        writer.indent = indent
+        writer.beginArray()
+        for (i in 0 until size) {
+            writer.beginObject()
+            writer.name(FLAG).value(flag(i))
+            writer.name(COUNTRY).value(country(i))
+            writer.name(LOCATION).beginObject()
+            writer.name(LAT).value(mLatitudes[i])
+            writer.name(LONG).value(mLongitudes[i])
+            writer.endObject()
+            writer.name(CATEGORIES).beginArray()
+            CATEGORY_NAMES.forEachIndexed { bit, name ->
+                if ((mCategories[i] and (1 shl bit)) != 0) {
+                    writer.beginObject().name(NAME).value(name).endObject()
+                }
+            }
+            writer.endArray()
+            writer.endObject()
+        }
+        writer.endArray()
+        writer.flush()
+    }
+
+    fun toJson(indent: String = ""): String {
+        val buffer = Buffer()
+        writeJson(buffer, indent)
+        return buffer.readUtf8()
+    }
+
+    override fun toString(): String {
+        return "ServerCatalog{" + "size=" + size + ", mFlagNames=" + mFlagNames.size + ", mCountryNames=" + mCountryNames.size +
+                "}"
+    }
+
+    /**
+     * Collects servers, merging the servers at the same location.
+     */
+    class Builder {
+        private val mLatitudes = ArrayList<Double>()
+        private val mLongitudes = ArrayList<Double>()
+        private val mFlags = ArrayList<Int>()
+        private val mCountries = ArrayList<Int>()
+        private val mCategories = ArrayList<Int>()
+        private val mFlagIds = LinkedHashMap<String, Int>()
+        private val mCountryIds = LinkedHashMap<String, Int>()
+        private val mLocations = HashMap<Location, Int>()
+
+        fun add(flag: String, country: String, latitude: Double, longitude: Double, categories: Int): Builder {
+            val location = Location(latitude, longitude)
+            val index = mLocations[location]
+            if (index != null) {
+                mCategories[index] = mCategories[index] or categories
+            } else {
+                mLocations[location] = mLatitudes.size
+                mLatitudes.add(latitude)
+                mLongitudes.add(longitude)
+                mFlags.add(mFlagIds.getOrPut(flag) { mFlagIds.size })
+                mCountries.add(mCountryIds.getOrPut(country) { mCountryIds.size })
+                mCategories.add(categories)
+            }
+            return this
+        }
+
+        fun build(): ServerCatalog = ServerCatalog(
+            mLatitudes.toDoubleArray(),
+            mLongitudes.toDoubleArray(),
+            mFlags.toIntArray(),
+            mCountries.toIntArray(),
+            mCategories.toIntArray(),
+            mFlagIds.keys.toTypedArray(),
+            mCountryIds.keys.toTypedArray()
+        )
+
+        private data class Location(val latitude: Double, val longitude: Double)
+    }
+
+    companion object {
+        const val CATEGORY_DEDICATED = 1
+        const val CATEGORY_DOUBLE = 1 shl 1
+        const val CATEGORY_OBFUSCATED = 1 shl 2
+        const val CATEGORY_ONION = 1 shl 3
+        const val CATEGORY_P2P = 1 shl 4
+        const val CATEGORY_STANDARD = 1 shl 5
+        // Names of the categories, by bit
+        private val CATEGORY_NAMES = arrayOf(DEDICATED, DOUBLE, OBFUSCATED, ONION, P2P, STANDARD)
+        private val SERVER_OPTIONS = JsonReader.Options.of(FLAG, COUNTRY, LOCATION, CATEGORIES)
+        private val LOCATION_OPTIONS = JsonReader.Options.of(LAT, LONG)
+        private val CATEGORY_OPTIONS = JsonReader.Options.of(NAME)
+
+        /**
+         * @return the category as a CATEGORY_ value, or 0 if it is unknown
+         */
+        fun category(name: String): Int {
+            val bit = CATEGORY_NAMES.indexOfFirst { it.equals(name, true) }
+            return if (bit >= 0) 1 shl bit else 0
+        }
+
+        /**
+         * Parse a server list, either as stored or as returned by the server API, whose other fields are skipped.
+         */
+        @Throws(IOException::class)
+        fun parse(source: BufferedSource): ServerCatalog {
+            val builder = Builder()
+            val reader = JsonReader.of(source)
+            reader.beginArray()
+            while (reader.hasNext()) {
+                read(reader, builder)
+            }
+            reader.endArray()
+            return builder.build()
+        }
+
+        @Throws(IOException::class)
+        private fun read(reader: JsonReader, builder: Builder) {
+            var flag = ""
+            var country = ""
+            var latitude = 0.0
+            var longitude = 0.0
+            var categories = 0
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.selectName(SERVER_OPTIONS)) {
+                    0 -> flag = reader.nextString().toLowerCase(Locale.ROOT)
+                    1 -> country = reader.nextString()
+                    2 -> {
+                        reader.beginObject()
+                        while (reader.hasNext()) {
+                            when (reader.selectName(LOCATION_OPTIONS)) {
+                                0 -> latitude = reader.nextDouble()
+                                1 -> longitude = reader.nextDouble()
+                                else -> skip(reader)
+                            }
+                        }
+                        reader.endObject()
+                    }
+                    3 -> {
+                        reader.beginArray()
+                        while (reader.hasNext()) {
+                            categories = categories or readCategory(reader)
+                        }
+                        reader.endArray()
+                    }
+                    else -> skip(reader)
+                }
+            }
+            reader.endObject()
+            builder.add(flag, country, latitude, longitude, categories)
+        }
+
+        private fun readCategory(reader: JsonReader): Int {
+            var mask = 0
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.selectName(CATEGORY_OPTIONS)) {
+                    0 -> {
+                        val name = reader.nextString()
+                        mask = category(name)
+                        if (mask == 0) {
+                            Log.error(name)
+                        }
+                    }
+                    else -> skip(reader)
+                }
+            }
+            reader.endObject()
+            return mask
+        }
+
+        private fun skip(reader: JsonReader) {
+            reader.skipName()
+            reader.skipValue()
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.getsixtyfour.openpyn.utils
+
+import androidx.annotation.WorkerThread
+import com.squareup.moshi.JsonDataException
+import de.jupf.staticlog.Log
+import okio.BufferedSource
+import okio.Okio
+import java.io.File
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.Properties
+
+/**
+ * Keeps a stored server list in sync with the server API. The request is conditional on the ETag and Last-Modified of the last
+ * response, the response is parsed as it streams in, with the servers at the same location merged on the fly, and the result is
+ * compared by location with the stored list through a hash of each server. The stored list is only written when a server was
+ * added, removed or changed, so that an unchanged list keeps its file, and the map snapshot built from it stays valid.
+ *
+ * The validators of the last response are kept next to the stored list, in a file with the extension .sync.
+ *
+ * @author 1951FDG
+ */
+class ServerSync(private val url: URL, private val file: File, private val indent: String = "") {
+    private val mValidators = File(file.path + ".sync")
+
+    /**
+     * The outcome of a sync, with the number of servers added, removed and changed in the stored list.
+     */
+    class Result(val isModified: Boolean, val added: Int, val removed: Int, val changed: Int) {
+        /**
+         * True if the stored list was written.
+         */
+        val isChanged: Boolean
+            get() = (added + removed + changed) > 0
+
+        override fun toString(): String {
+            return "Result{" + "isModified=" + isModified + ", added=" + added + ", removed=" + removed + ", changed=" + changed +
+                    "}"
+        }
+    }
+
+    @WorkerThread
+    @Throws(IOException::class)
+    fun sync(): Result {
+        val validators = loadValidators()
+        val connection = url.openConnection() as HttpURLConnection
+        try {
+            connection.connectTimeout = TIMEOUT
+            connection.readTimeout = TIMEOUT_READ
+            // Without a stored list there is nothing the server could confirm as unchanged
+            if (file.exists()) {
+                validators.getProperty(ETAG)?.let { connection.setRequestProperty("If-None-Match", it) }
+                validators.getProperty(LAST_MODIFIED)?.let { connection.setRequestProperty("If-Modified-Since", it) }
+            }
+            when (val code = connection.responseCode) {
+                HttpURLConnection.HTTP_NOT_MODIFIED -> return Result(false, 0, 0, 0)
+                HttpURLConnection.HTTP_OK -> Unit
+                else -> throw IOException("unexpected response code: $code")
+            }
+            val servers = parse { Okio.buffer(Okio.source(connection.inputStream)) }
+            if (servers.size == 0) {
+                throw IOException("no servers in response")
+            }
+            val result = diff(stored(), servers)
+            if (result.isChanged) {
+                write(servers)
+            }
+            saveValidators(connection.getHeaderField(ETAG), connection.getHeaderField(LAST_MODIFIED))
+            return result
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    // The stored list, or no servers if there is none or it is not readable, so that it is written again
+    private fun stored(): ServerCatalog {
+        if (file.exists()) {
+            try {
+                return parse { Okio.buffer(Okio.source(file)) }
+            } catch (e: IOException) {
+                Log.warn(e.toString())
+            }
+        }
+        return ServerCatalog.Builder().build()
+    }
+
+    private fun write(servers: ServerCatalog) {
+        val temp = File(file.path + ".tmp")
+        Okio.buffer(Okio.sink(temp)).use { servers.sorted().writeJson(it, indent) }
+        if (!temp.renameTo(file)) {
+            temp.delete()
+            throw IOException("could not rename $temp")
+        }
+    }
+
+    private fun loadValidators(): Properties {
+        val properties = Properties()
+        if (mValidators.exists()) {
+            mValidators.inputStream().use { properties.load(it) }
+        }
+        return properties
+    }
+
+    private fun saveValidators(eTag: String?, lastModified: String?) {
+        val properties = Properties()
+        eTag?.let { properties.setProperty(ETAG, it) }
+        lastModified?.let { properties.setProperty(LAST_MODIFIED, it) }
+        mValidators.outputStream().use { properties.store(it, null) }
+    }
+
+    override fun toString(): String {
+        return "ServerSync{" + "url=" + url + ", file=" + file + "}"
+    }
+
+    private data class Location(val latitude: Double, val longitude: Double)
+
+    companion object {
+        private const val ETAG = "ETag"
+        private const val LAST_MODIFIED = "Last-Modified"
+        private const val TIMEOUT = 1000
+        private const val TIMEOUT_READ = 1000
+
+        private inline fun parse(open: () -> BufferedSource): ServerCatalog {
+            try {
+                return open().use { ServerCatalog.parse(it) }
+            } catch (e: JsonDataException) {
+                throw IOException(e)
+            }
+        }
+
+        private fun diff(stored: ServerCatalog, servers: ServerCatalog): Result {
+            val hashes = HashMap<Location, Long>(stored.size)
+            for (i in 0 until stored.size) {
+                hashes[Location(stored.latitude(i), stored.longitude(i))] = hash(stored, i)
+            }
+            var added = 0
+            var changed = 0
+            for (i in 0 until servers.size) {
+                val previous = hashes.remove(Location(servers.latitude(i), servers.longitude(i)))
+                when {
+                    previous == null -> added++
+                    previous != hash(servers, i) -> changed++
+                }
+            }
+            return Result(true, added, hashes.size, changed)
+        }
+
+        private fun hash(servers: ServerCatalog, index: Int): Long {
+            var hash = servers.flag(index).hashCode().toLong()
+            hash = 31 * hash + servers.country(index).hashCode()
+            hash = 31 * hash + servers.categories(index)
+            return hash
+        }
+    }
+}
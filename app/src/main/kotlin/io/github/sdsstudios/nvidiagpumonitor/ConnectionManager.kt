@@ -101,6 +101,8 @@ class ConnectionManager(
         if (isConnected()) disconnect()
 
         mClient.stop(mCtx)
+
+        mOpenpynController.onDestroy()
     }
 
     @Suppress("MagicNumber")
@@ -3,6 +3,7 @@ package io.github.sdsstudios.nvidiagpumonitor.controllers
 import android.content.Context
 import androidx.lifecycle.MutableLiveData
 import androidx.preference.PreferenceManager
+import com.getsixtyfour.openvpnmgmt.core.LogFileSink
 import com.sonelli.juicessh.pluginlibrary.PluginClient
 import com.sonelli.juicessh.pluginlibrary.listeners.OnSessionExecuteListener
 import io.github.sdsstudios.nvidiagpumonitor.listeners.OnCommandExecuteListener
@@ -10,6 +11,7 @@ import io.github.sdsstudios.nvidiagpumonitor.listeners.OnOutputLineListener
 import io.github.sdsstudios.nvidiagpumonitor.model.Coordinate
 import org.jetbrains.anko.AnkoLogger
 import org.jetbrains.anko.info
+import java.io.File
 
 class OpenpynController(
     ctx: Context,
@@ -29,6 +31,8 @@ class OpenpynController(
         private const val SUCCESS = "SUCCESS"
         private const val ERROR = "ERROR"
         private const val CRITICAL = "CRITICAL"
+        private const val LOG_DIRECTORY = "logs"
+        private const val LOG_PREFIX = "openpyn"
     }
 
     override val regex: Regex = Regex("""\d+""")
@@ -36,6 +40,7 @@ class OpenpynController(
     private var nvram = false
     @Suppress("MagicNumber")
     private var buffer = StringBuilder(256)
+    private val mLogFileSink = LogFileSink(File(ctx.filesDir, LOG_DIRECTORY), LOG_PREFIX)
 
     @Suppress("MagicNumber")
     override fun onCompleted(exitCode: Int) {
@@ -60,6 +65,8 @@ class OpenpynController(
     override fun onOutputLine(line: String) {
         info(line)
 
+        mLogFileSink.write(line)
+
         when {
             line.startsWith("Killing the running openvpn", true) -> mActivityExecuteCommandListener?.onDisconnect()
             line.startsWith("CONNECTING TO SERVER", true) -> mActivityExecuteCommandListener?.onConnect()
@@ -208,6 +215,11 @@ class OpenpynController(
         return false
     }
 
+    fun onDestroy() {
+        // The writer thread finishes the file and logs the number of dropped lines, do not wait for it here
+        mLogFileSink.close()
+    }
+
     override fun convertDataToInt(data: String): Int {
         return data.toInt()
     }
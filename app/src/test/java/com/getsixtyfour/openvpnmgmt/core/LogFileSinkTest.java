@@ -0,0 +1,197 @@
+package com.getsixtyfour.openvpnmgmt.core;
+
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+public class LogFileSinkTest {
+
+    private static final String PREFIX = "openvpn";
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10L);
+
+    private File mDirectory = null;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("logs").toFile();
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * Test of rotation by size, of class LogFileSink.
+     */
+    @Test
+    public void testRotateBySize() throws IOException, InterruptedException {
+        LogFileSink sink = new LogFileSink(mDirectory, PREFIX, 2, 1L, TimeUnit.DAYS.toMillis(1L), LogFileSink.DEFAULT_MAX_FILES);
+        Assert.assertTrue(sink.write("first"));
+        File[] archives = awaitArchives(1);
+        close(sink);
+        Assert.assertEquals(1L, archives.length);
+        Assert.assertTrue(readArchive(archives[0]).endsWith(" - first\n"));
+    }
+
+    /**
+     * Test of rotation by age of a file left over from a previous run, of class LogFileSink.
+     */
+    @Test
+    public void testRotateByAge() throws IOException, InterruptedException {
+        long time = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2L);
+        String line = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT).format(new Date(time)) + " - previous\n";
+        File active = new File(mDirectory, PREFIX + ".log");
+        Files.write(active.toPath(), line.getBytes(StandardCharsets.UTF_8));
+        // The file was written just now, only its first line tells how old it is
+        LogFileSink sink = new LogFileSink(mDirectory, PREFIX, 2, LogFileSink.DEFAULT_MAX_FILE_SIZE, TimeUnit.DAYS.toMillis(1L),
+                LogFileSink.DEFAULT_MAX_FILES);
+        Assert.assertTrue(sink.write("current"));
+        File[] archives = awaitArchives(1);
+        close(sink);
+        String text = readArchive(archives[0]);
+        Assert.assertTrue(text.startsWith(line));
+        Assert.assertTrue(text.endsWith(" - current\n"));
+    }
+
+    /**
+     * Test of the number of compressed segments kept, of class LogFileSink.
+     */
+    @Test
+    public void testPrune() throws IOException, InterruptedException {
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            File segment = new File(mDirectory, PREFIX + '-' + (time + i) + ".log");
+            Files.write(segment.toPath(), ("segment " + i + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        LogFileSink sink = new LogFileSink(mDirectory, PREFIX, LogFileSink.DEFAULT_QUEUE_CAPACITY, LogFileSink.DEFAULT_MAX_FILE_SIZE,
+                LogFileSink.DEFAULT_MAX_FILE_AGE, 2);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ((listFiles(".log").length > 0) || (listFiles(".log.gz").length > 2)) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+        close(sink);
+        File[] archives = listFiles(".log.gz");
+        Arrays.sort(archives);
+        Assert.assertEquals(2L, archives.length);
+        Assert.assertEquals("segment 2\n", readArchive(archives[0]));
+        Assert.assertEquals("segment 3\n", readArchive(archives[1]));
+    }
+
+    /**
+     * Test of getDroppedCount method with a full queue, of class LogFileSink.
+     */
+    @Test
+    public void testDroppedCount() throws IOException, InterruptedException {
+        int count = 10000;
+        LogFileSink sink = new LogFileSink(mDirectory, PREFIX, 1, Long.MAX_VALUE, Long.MAX_VALUE, LogFileSink.DEFAULT_MAX_FILES);
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            if (sink.write("line " + i)) {
+                written++;
+            }
+        }
+        close(sink);
+        long dropped = sink.getDroppedCount();
+        Assert.assertTrue(dropped > 0L);
+        Assert.assertEquals(count, written + dropped);
+        Assert.assertEquals(written, Files.readAllLines(new File(mDirectory, PREFIX + ".log").toPath()).size());
+        // Lines offered once the sink is closed are dropped too
+        Assert.assertFalse(sink.write("closed"));
+        Assert.assertEquals(dropped + 1L, sink.getDroppedCount());
+    }
+
+    /**
+     * Test of close method, of class LogFileSink.
+     */
+    @Test
+    public void testClose() throws IOException, InterruptedException {
+        LogFileSink sink = new LogFileSink(mDirectory, PREFIX);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(sink.write("line " + i));
+        }
+        // Closing must not wait for the flush interval, nor lose what is still queued or buffered
+        close(sink);
+        Assert.assertEquals(0L, sink.getDroppedCount());
+        String text = new String(Files.readAllBytes(new File(mDirectory, PREFIX + ".log").toPath()), StandardCharsets.UTF_8);
+        String[] lines = text.split("\n");
+        Assert.assertEquals(3L, lines.length);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(lines[i].endsWith(" - line " + i));
+        }
+    }
+
+    /**
+     * Test of the removal of a temporary archive left over by a compression that was killed, of class LogFileSink.
+     */
+    @Test
+    public void testPruneTemporary() throws IOException, InterruptedException {
+        File temp = new File(mDirectory, PREFIX + '-' + System.currentTimeMillis() + ".log.gz.tmp");
+        Files.write(temp.toPath(), new byte[]{ 0x1f, (byte) 0x8b });
+        LogFileSink sink = new LogFileSink(mDirectory, PREFIX);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (temp.exists()) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+        close(sink);
+    }
+
+    private File[] awaitArchives(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        File[] files;
+        while ((files = listFiles(".log.gz")).length < count) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+        return files;
+    }
+
+    private File[] listFiles(String suffix) {
+        File[] files = mDirectory.listFiles((dir, name) -> name.startsWith(PREFIX + '-') && name.endsWith(suffix));
+        return (files != null) ? files : new File[0];
+    }
+
+    private static void close(LogFileSink sink) throws InterruptedException {
+        sink.close();
+        Assert.assertTrue(sink.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    private static String readArchive(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            byte[] bytes = new byte[8192];
+            int count;
+            while ((count = in.read(bytes)) != -1) {
+                out.write(bytes, 0, count);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -17,9 +17,20 @@ import org.junit.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author 1951FDG
@@ -92,6 +103,164 @@ public class ManagementConnectionTest {
         }
     }
 
+    /**
+     * Test of processLog method with a level subscription, of class ManagementConnection.
+     */
+    @Test
+    public void testProcessLogLevel() throws InvocationTargetException {
+        List<Log> logs = new ArrayList<>();
+        LogListener listener = new LogListener() {
+            @Override
+            public void onLog(@NotNull Log log) {
+                logs.add(log);
+            }
+        };
+        connection.addLogListener(listener, LogLevel.WARNING);
+        invokeParseInput(">LOG:1577836800,D,dropped");
+        invokeParseInput(">LOG:1577836800,I,MANAGEMENT: CMD 'state'");
+        invokeParseInput(">LOG:1577836800,I,WARNING: link remote");
+        connection.removeLogListener(listener);
+        // The debug line and the management command echo are below the subscribed level
+        Assert.assertEquals(1L, logs.size());
+        Log log = logs.get(0);
+        Assert.assertEquals(LogLevel.WARNING, log.getLevel());
+        Assert.assertEquals("1577836800", log.getDate());
+        Assert.assertEquals("link remote", log.getMessage());
+    }
+
+    /**
+     * Test of connect method with a transport that is not port based, of class ManagementConnection.
+     */
+    @Test
+    public void testConnectWithoutPort() throws IOException {
+        byte[] in = "1577836800,EXITING,SIGTERM,,,,,\nEND\n".getBytes(StandardCharsets.UTF_8);
+        List<Integer> ports = new ArrayList<>();
+        connection.registerTransport("test", (address, port, keepAlive) -> {
+            ports.add(port);
+            return new StreamTransport(in, new ByteArrayOutputStream());
+        });
+        try {
+            connection.connect("test://management", null);
+            Assert.assertTrue(connection.isConnected());
+        } finally {
+            connection.disconnect();
+        }
+        Assert.assertEquals(1L, ports.size());
+        Assert.assertNull(ports.get(0));
+    }
+
+    /**
+     * Test of run method with the log filter pushed down to OpenVPN, of class ManagementConnection.
+     */
+    @Test
+    public void testRunLogPushdown() throws IOException {
+        String commands = runLogPushdown(4, 0);
+        Assert.assertTrue(commands.contains("verb 3"));
+        Assert.assertTrue(commands.contains("mute " + ManagementConnection.LOG_MUTE_COUNT));
+        // The filter is in place before OpenVPN is released from its hold
+        Assert.assertTrue(commands.indexOf("verb 3") < commands.indexOf("hold release"));
+    }
+
+    /**
+     * Test of run method with the log filter pushed down to an OpenVPN that logs less already, of class ManagementConnection.
+     */
+    @Test
+    public void testRunLogPushdownNeverRaises() throws IOException {
+        String commands = runLogPushdown(1, 5);
+        Assert.assertFalse(commands.contains("verb 3"));
+        Assert.assertFalse(commands.contains("mute " + ManagementConnection.LOG_MUTE_COUNT));
+        Assert.assertTrue(commands.contains("hold release"));
+    }
+
+    /**
+     * Test of run method without the log filter pushed down, of class ManagementConnection.
+     */
+    @Test
+    public void testRunWithoutLogPushdown() throws IOException {
+        byte[] in = "1577836800,EXITING,SIGTERM,,,,,\nEND\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        connection.registerTransport("test", (address, port, keepAlive) -> new StreamTransport(in, out));
+        try {
+            connection.connect("test://management", 0);
+            connection.run();
+        } finally {
+            connection.disconnect();
+        }
+        String commands = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertFalse(commands.contains("verb"));
+        Assert.assertFalse(commands.contains("mute"));
+    }
+
+    /**
+     * Test of run method with a session journal that can't be written, of class ManagementConnection.
+     */
+    @Test
+    public void testRunJournalError() throws IOException {
+        File file = File.createTempFile("session", ".journal");
+        file.deleteOnExit();
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        // The header fills the first region, so the first record fails to map a new region of the closed channel
+        SessionJournal journal = new SessionJournal(channel, SessionJournal.HEADER_SIZE);
+        channel.close();
+        byte[] in = "1577836800,EXITING,SIGTERM,,,,,\nEND\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        connection.registerTransport("test", (address, port, keepAlive) -> new StreamTransport(in, out));
+        connection.setSessionJournal(journal);
+        try {
+            connection.connect("test://management", null);
+            connection.run();
+            // The session went on without the journal
+            Assert.assertNull(connection.getSessionJournal());
+        } finally {
+            connection.disconnect();
+            connection.setSessionJournal(null);
+        }
+        Assert.assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).contains("hold release"));
+    }
+
+    /**
+     * Test of the session journal of a username and password request, of class ManagementConnection.
+     */
+    @Test
+    public void testJournalRedactsCredentials() throws IOException {
+        File file = File.createTempFile("session", ".journal");
+        file.deleteOnExit();
+        byte[] in = "1577836800,WAIT,,,,,,\nEND\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        connection.registerTransport("test", (address, port, keepAlive) -> new StreamTransport(in, out));
+        connection.setUsernamePasswordHandler(new UsernamePasswordHandler() {
+            @NotNull
+            @Override
+            public String getUserName() {
+                return "alice";
+            }
+
+            @NotNull
+            @Override
+            public String getUserPass() {
+                return "hunter2";
+            }
+        });
+        try (SessionJournal journal = new SessionJournal(file)) {
+            connection.setSessionJournal(journal);
+            connection.connect("test://management", null);
+            connection.replayInput(">PASSWORD:Need 'Auth' username/password");
+        } finally {
+            connection.disconnect();
+            connection.setSessionJournal(null);
+            connection.setUsernamePasswordHandler(null);
+        }
+        // OpenVPN gets the credentials, the journal does not
+        String commands = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(commands.contains("username 'Auth' alice"));
+        Assert.assertTrue(commands.contains("password 'Auth' hunter2"));
+        String journal = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(journal.contains("username 'Auth' ***"));
+        Assert.assertTrue(journal.contains("password 'Auth' ***"));
+        Assert.assertFalse(journal.contains("alice"));
+        Assert.assertFalse(journal.contains("hunter2"));
+    }
+
     /**
      * Test of processPassword method, of class ManagementConnection.
      */
@@ -158,6 +327,37 @@ public class ManagementConnectionTest {
         invokeParseInput(line);
     }
 
+    /**
+     * @return the commands sent to an OpenVPN at verb and mute, with a listener subscribed at INFO
+     */
+    private static String runLogPushdown(int verb, int mute) throws IOException {
+        String replies = "1577836800,EXITING,SIGTERM,,,,,\nEND\n" + "SUCCESS: real-time state notification set to ON\n"
+                + ">LOG:1577836800,I,first\n" + "SUCCESS: verb=" + verb + "\n" + "SUCCESS: mute=" + mute + "\n";
+        byte[] in = replies.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        connection.registerTransport("test", (address, port, keepAlive) -> new StreamTransport(in, out));
+        List<Log> logs = new ArrayList<>();
+        LogListener listener = new LogListener() {
+            @Override
+            public void onLog(@NotNull Log log) {
+                logs.add(log);
+            }
+        };
+        connection.addLogListener(listener, LogLevel.INFO);
+        connection.setLogPushdown(true);
+        try {
+            connection.connect("test://management", 0);
+            connection.run();
+        } finally {
+            connection.disconnect();
+            connection.setLogPushdown(false);
+            connection.removeLogListener(listener);
+        }
+        // The log line read while waiting for the reply is not lost
+        Assert.assertEquals(1L, logs.size());
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     private static void invokeParseInput(String line) throws InvocationTargetException {
         Class[] argClasses = { String.class };
         Object[] argObjects = { line };
@@ -197,4 +397,64 @@ public class ManagementConnectionTest {
             throw new AssertionFailedError(e.getMessage());
         }
     }
+
+    /**
+     * Hands out one line per read and never reports bytes as available, as a socket does while OpenVPN has not written more.
+     */
+    private static final class LineInputStream extends ByteArrayInputStream {
+
+        LineInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public synchronized int available() {
+            return 0;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int end = pos;
+            while ((end < count) && (buf[end] != '\n')) {
+                end++;
+            }
+            return super.read(b, off, Math.min(len, Math.min(count, end + 1) - pos));
+        }
+    }
+
+    private static final class StreamTransport implements Transport {
+
+        private final InputStream mInputStream;
+
+        private final OutputStream mOutputStream;
+
+        private boolean mConnected = true;
+
+        StreamTransport(byte[] input, OutputStream output) {
+            mInputStream = new LineInputStream(input);
+            mOutputStream = output;
+        }
+
+        @Override
+        public void close() {
+            mConnected = false;
+        }
+
+        @NotNull
+        @Override
+        public InputStream getInputStream() {
+            return mInputStream;
+        }
+
+        @NotNull
+        @Override
+        public OutputStream getOutputStream() {
+            return mOutputStream;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return mConnected;
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package com.getsixtyfour.openvpnmgmt.net;
+
+import com.getsixtyfour.openvpnmgmt.core.LogLevel;
+import com.getsixtyfour.openvpnmgmt.listeners.LogManager.Log;
+import com.getsixtyfour.openvpnmgmt.listeners.LogManager.LogListener;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+public class SessionReplayTest {
+
+    private static ManagementConnection connection = null;
+
+    @BeforeClass
+    public static void setUpClass() {
+        connection = ManagementConnection.getInstance();
+    }
+
+    /**
+     * Test of replay method, of class SessionReplay.
+     */
+    @Test
+    public void testReplay() throws IOException {
+        File file = File.createTempFile("session", ".journal");
+        file.deleteOnExit();
+        try (SessionJournal journal = new SessionJournal(file)) {
+            journal.recordOutbound("log on");
+            journal.recordResponse("SUCCESS: real-time log notification set to ON");
+            journal.recordInbound(">LOG:1577836800,I,first");
+            journal.recordInbound("");
+            journal.recordInbound(">LOG:1577836800,W,second");
+        }
+        AtomicInteger count = new AtomicInteger();
+        LogListener listener = new LogListener() {
+            @Override
+            public void onLog(@NotNull Log log) {
+                count.incrementAndGet();
+                Assert.assertNotEquals(LogLevel.VERBOSE, log.getLevel());
+            }
+        };
+        connection.addLogListener(listener);
+        SessionReplay.Result result = new SessionReplay(file).replay(connection, SessionReplay.MAXIMUM_SPEED);
+        connection.removeLogListener(listener);
+        Assert.assertEquals(2L, result.getLines());
+        Assert.assertEquals(2, count.get());
+    }
+
+    /**
+     * Test of replay method with a file that is not a journal, of class SessionReplay.
+     */
+    @Test(expected = IOException.class)
+    public void testReplayInvalid() throws IOException {
+        File file = File.createTempFile("session", ".journal");
+        file.deleteOnExit();
+        new SessionReplay(file).replay(connection, SessionReplay.ORIGINAL_SPEED);
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.getsixtyfour.openpyn.map;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Looks up coordinates in the cell file written by the buildCountryCells task.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+public class CountryCellsTest {
+
+    private static CountryCells sCells = null;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException, URISyntaxException {
+        URL url = CountryCellsTest.class.getClassLoader().getResource("boundaries.cells");
+        Assert.assertNotNull(url);
+        sCells = new CountryCells(new File(url.toURI()));
+    }
+
+    /**
+     * Test of getIds method, of class CountryCells.
+     */
+    @Test
+    public void testGetIds() {
+        Assert.assertEquals(Arrays.asList("DE", "EU"), sCells.getIds(13.4, 52.52));
+        Assert.assertEquals(Collections.singletonList("AL"), sCells.getIds(19.8188889, 41.3275));
+        // Subdivisions come before their country
+        Assert.assertEquals(Arrays.asList("US-TX", "US"), sCells.getIds(-96.7954, 32.7816));
+        Assert.assertEquals(Collections.emptyList(), sCells.getIds(-140.0, -40.0));
+    }
+
+    /**
+     * Test of getIds method on both sides of a border within one cell, of class CountryCells.
+     */
+    @Test
+    public void testGetIdsBorder() {
+        // Strasbourg and Kehl, on either side of the Rhine
+        Assert.assertEquals(Arrays.asList("FX", "FR", "EU"), sCells.getIds(7.75, 48.58));
+        Assert.assertEquals(Arrays.asList("DE", "EU"), sCells.getIds(7.81, 48.57));
+    }
+
+    /**
+     * Test of getIds method on both sides of the antimeridian, of class CountryCells.
+     */
+    @Test
+    public void testGetIdsAntimeridian() {
+        Assert.assertEquals(Collections.singletonList("FJ"), sCells.getIds(178.44, -18.14));
+        Assert.assertEquals(Collections.singletonList("FJ"), sCells.getIds(-179.95, -16.85));
+        Assert.assertEquals(Collections.singletonList("RU"), sCells.getIds(177.5, 64.73));
+        Assert.assertEquals(Collections.singletonList("RU"), sCells.getIds(-175.0, 67.0));
+    }
+
+    /**
+     * Test of isUniform method, of class CountryCells.
+     */
+    @Test
+    public void testIsUniform() {
+        Assert.assertTrue(sCells.isUniform(-140.01, -40.01, -139.99, -39.99));
+        Assert.assertFalse(sCells.isUniform(7.7, 48.5, 7.9, 48.65));
+    }
+
+    /**
+     * Test of the constructor with a buffer that is not a cell file, of class CountryCells.
+     */
+    @Test(expected = IOException.class)
+    public void testNotCellFile() throws IOException {
+        new CountryCells(ByteBuffer.allocate(64));
+    }
+}
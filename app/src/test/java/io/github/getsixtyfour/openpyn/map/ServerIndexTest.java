@@ -0,0 +1,166 @@
+package io.github.getsixtyfour.openpyn.map;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import io.github.getsixtyfour.openpyn.utils.ServerCatalog;
+
+/**
+ * Checks the k-d tree against a brute force search over the same servers.
+ *
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+public class ServerIndexTest {
+
+    private static final String[] FLAGS = { "al", "fj", "nz", "ru", "us" };
+
+    private static final int COUNT = 500;
+
+    private static final int K = 8;
+
+    private static final int QUERIES = 200;
+
+    private static ServerCatalog sCatalog = null;
+
+    private static ServerIndex sIndex = null;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Random random = new Random(42L);
+        ServerCatalog.Builder builder = new ServerCatalog.Builder();
+        for (int i = 0; i < COUNT; i++) {
+            double latitude = (random.nextDouble() * 170.0) - 85.0;
+            // A third of the servers are within a few degrees of the antimeridian, on either side
+            double longitude = (random.nextDouble() * 360.0) - 180.0;
+            if ((i % 3) == 0) {
+                longitude = wrap(175.0 + (random.nextDouble() * 10.0));
+            }
+            int categories = 1 + random.nextInt((ServerCatalog.CATEGORY_STANDARD << 1) - 1);
+            builder.add(FLAGS[random.nextInt(FLAGS.length)], "", latitude, longitude, categories);
+        }
+        sCatalog = builder.build();
+        sIndex = new ServerIndex(sCatalog);
+    }
+
+    /**
+     * Test of nearest method, of class ServerIndex.
+     */
+    @Test
+    public void testNearest() {
+        Random random = new Random(7L);
+        int[] result = new int[K];
+        for (int i = 0; i < QUERIES; i++) {
+            double latitude = (random.nextDouble() * 180.0) - 90.0;
+            double longitude = (random.nextDouble() * 360.0) - 180.0;
+            int count = sIndex.nearest(latitude, longitude, result, null, ServerIndex.ANY);
+            assertNearest(bruteForce(latitude, longitude, null, -1, ServerIndex.ANY), result, count);
+            Assert.assertEquals(result[0], sIndex.nearest(latitude, longitude, (BitSet) null, ServerIndex.ANY));
+        }
+    }
+
+    /**
+     * Test of nearest method with flags and categories, of class ServerIndex.
+     */
+    @Test
+    public void testNearestFiltered() {
+        Random random = new Random(11L);
+        int[] result = new int[K];
+        for (int i = 0; i < QUERIES; i++) {
+            double latitude = (random.nextDouble() * 180.0) - 90.0;
+            double longitude = (random.nextDouble() * 360.0) - 180.0;
+            List<CharSequence> flags = new ArrayList<>();
+            flags.add(FLAGS[i % FLAGS.length]);
+            flags.add(FLAGS[(i + 2) % FLAGS.length]);
+            BitSet set = sIndex.flagSet(flags);
+            int categories = 1 << (i % 6);
+            int count = sIndex.nearest(latitude, longitude, result, set, categories);
+            assertNearest(bruteForce(latitude, longitude, set, -1, categories), result, count);
+            int flag = sIndex.flagId(FLAGS[i % FLAGS.length]);
+            List<Integer> expected = bruteForce(latitude, longitude, null, flag, categories);
+            Assert.assertEquals(expected.isEmpty() ? -1 : (int) expected.get(0),
+                    position(sIndex.nearest(latitude, longitude, flag, categories)));
+        }
+    }
+
+    /**
+     * Test of nearest method across the antimeridian, of class ServerIndex.
+     */
+    @Test
+    public void testNearestAntimeridian() {
+        int[] result = new int[K];
+        for (double longitude : new double[]{ 179.9, -179.9, 180.0, -180.0 }) {
+            int count = sIndex.nearest(0.0, longitude, result, null, ServerIndex.ANY);
+            List<Integer> expected = bruteForce(0.0, longitude, null, -1, ServerIndex.ANY);
+            assertNearest(expected, result, count);
+            // The nearest servers are found on both sides
+            boolean east = false;
+            boolean west = false;
+            for (int i = 0; i < count; i++) {
+                east |= sIndex.longitude(result[i]) > 0.0;
+                west |= sIndex.longitude(result[i]) < 0.0;
+            }
+            Assert.assertTrue(east && west);
+        }
+    }
+
+    /**
+     * Test of nearest method without a match or room for one, of class ServerIndex.
+     */
+    @Test
+    public void testNearestEmpty() {
+        Assert.assertEquals(0L, sIndex.nearest(0.0, 0.0, new int[0], null, ServerIndex.ANY));
+        Assert.assertEquals(-1L, sIndex.flagId("xx"));
+        Assert.assertEquals(-1L, sIndex.nearest(0.0, 0.0, sIndex.flagId("xx"), ServerIndex.ANY));
+        Assert.assertEquals(-1L, sIndex.nearest(0.0, 0.0, new BitSet(), ServerIndex.ANY));
+        Assert.assertEquals(0L, sIndex.nearest(0.0, 0.0, new int[K], null, ServerCatalog.CATEGORY_STANDARD << 1));
+    }
+
+    private void assertNearest(List<Integer> expected, int[] result, int count) {
+        Assert.assertEquals(Math.min(K, expected.size()), count);
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals((int) expected.get(i), sIndex.position(result[i]));
+        }
+    }
+
+    private int position(int index) {
+        return (index >= 0) ? sIndex.position(index) : -1;
+    }
+
+    /**
+     * @return the positions in the catalog of all the matching servers, nearest first by great-circle distance
+     */
+    private static List<Integer> bruteForce(double latitude, double longitude, BitSet flags, int flag, int categories) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < sCatalog.getSize(); i++) {
+            boolean category = (categories == ServerIndex.ANY) || ((sCatalog.categories(i) & categories) != 0);
+            boolean inFlags = (flags == null) || flags.get(sCatalog.flagId(i));
+            if (category && inFlags && ((flag < 0) || (sCatalog.flagId(i) == flag))) {
+                positions.add(i);
+            }
+        }
+        positions.sort((a, b) -> Double.compare(distance(latitude, longitude, a), distance(latitude, longitude, b)));
+        return positions;
+    }
+
+    // Haversine
+    private static double distance(double latitude, double longitude, int position) {
+        double phi1 = Math.toRadians(latitude);
+        double phi2 = Math.toRadians(sCatalog.latitude(position));
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(sCatalog.longitude(position) - longitude);
+        double sinPhi = Math.sin(dPhi / 2.0);
+        double sinLambda = Math.sin(dLambda / 2.0);
+        double a = (sinPhi * sinPhi) + (Math.cos(phi1) * Math.cos(phi2) * sinLambda * sinLambda);
+        return 2.0 * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    private static double wrap(double longitude) {
+        return (longitude > 180.0) ? (longitude - 360.0) : longitude;
+    }
+}
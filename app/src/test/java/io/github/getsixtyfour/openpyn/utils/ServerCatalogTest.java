@@ -0,0 +1,134 @@
+package io.github.getsixtyfour.openpyn.utils;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+public class ServerCatalogTest {
+
+    /**
+     * Test of parse method with a response of the server API, of class ServerCatalog.
+     */
+    @Test
+    public void testParse() throws IOException {
+        ServerCatalog servers;
+        try (InputStream in = ServerCatalogTest.class.getClassLoader().getResourceAsStream("servers.json")) {
+            Assert.assertNotNull(in);
+            try (BufferedSource source = Okio.buffer(Okio.source(in))) {
+                servers = ServerCatalog.Companion.parse(source);
+            }
+        }
+        // The two servers in Albania are at the same location, the other fields of the response are skipped
+        Assert.assertEquals(3L, servers.getSize());
+        Assert.assertEquals(3L, servers.getFlagCount());
+        Assert.assertEquals("al", servers.flag(0));
+        Assert.assertEquals("Albania", servers.country(0));
+        Assert.assertEquals(41.3275, servers.latitude(0), 0.0);
+        Assert.assertEquals(19.8188889, servers.longitude(0), 0.0);
+        Assert.assertEquals(ServerCatalog.CATEGORY_STANDARD | ServerCatalog.CATEGORY_P2P, servers.categories(0));
+        Assert.assertEquals("au", servers.flag(2));
+        Assert.assertEquals(ServerCatalog.CATEGORY_OBFUSCATED, servers.categories(2));
+    }
+
+    /**
+     * Test of parse method with servers at the same location, of class ServerCatalog.
+     */
+    @Test
+    public void testParseMerge() throws IOException {
+        ServerCatalog servers = parse("[" + server("nz", "New Zealand", -36.85, 174.7833, "P2P") + ", "
+                + server("fj", "Fiji", -18.1416, 178.4419, "Standard VPN servers") + ", "
+                + server("nz", "New Zealand", -36.85, 174.7833, "Double VPN") + ", "
+                + server("nz", "New Zealand", -36.85, 174.7834, "Onion Over VPN") + "]");
+        Assert.assertEquals(3L, servers.getSize());
+        Assert.assertEquals(2L, servers.getFlagCount());
+        Assert.assertEquals(2L, servers.getCountryCount());
+        Assert.assertEquals(ServerCatalog.CATEGORY_P2P | ServerCatalog.CATEGORY_DOUBLE, servers.categories(0));
+        Assert.assertEquals(ServerCatalog.CATEGORY_ONION, servers.categories(2));
+        Assert.assertEquals(servers.flagId(0), servers.flagId(2));
+        Assert.assertEquals(servers.countryId(0), servers.countryId(2));
+    }
+
+    /**
+     * Test of parse method with fields it does not know, of class ServerCatalog.
+     */
+    @Test
+    public void testParseUnknownFields() throws IOException {
+        ServerCatalog servers = parse("[{\"id\": 1, \"flag\": \"US\", \"features\": {\"socks\": false, \"flag\": \"xx\"},"
+                + " \"country\": \"United States\", \"location\": {\"lat\": 32.7816, \"alt\": [1, 2], \"long\": -96.7954},"
+                + " \"search_keywords\": [\"netflix\"], \"categories\": [{\"id\": 11, \"name\": \"Dedicated IP\"}], \"load\": null}]");
+        Assert.assertEquals(1L, servers.getSize());
+        Assert.assertEquals("us", servers.flag(0));
+        Assert.assertEquals("United States", servers.country(0));
+        Assert.assertEquals(32.7816, servers.latitude(0), 0.0);
+        Assert.assertEquals(-96.7954, servers.longitude(0), 0.0);
+        Assert.assertEquals(ServerCatalog.CATEGORY_DEDICATED, servers.categories(0));
+    }
+
+    /**
+     * Test of category method, of class ServerCatalog.
+     */
+    @Test
+    public void testCategory() {
+        Assert.assertEquals(ServerCatalog.CATEGORY_DEDICATED, ServerCatalog.Companion.category("Dedicated IP"));
+        Assert.assertEquals(ServerCatalog.CATEGORY_DOUBLE, ServerCatalog.Companion.category("Double VPN"));
+        Assert.assertEquals(ServerCatalog.CATEGORY_OBFUSCATED, ServerCatalog.Companion.category("Obfuscated Servers"));
+        Assert.assertEquals(ServerCatalog.CATEGORY_ONION, ServerCatalog.Companion.category("Onion Over VPN"));
+        Assert.assertEquals(ServerCatalog.CATEGORY_P2P, ServerCatalog.Companion.category("p2p"));
+        Assert.assertEquals(ServerCatalog.CATEGORY_STANDARD, ServerCatalog.Companion.category("STANDARD VPN SERVERS"));
+        Assert.assertEquals(0L, ServerCatalog.Companion.category("Netflix"));
+    }
+
+    /**
+     * Test of parse method with category names it does not know, of class ServerCatalog.
+     */
+    @Test
+    public void testParseUnknownCategory() throws IOException {
+        ServerCatalog servers = parse("[" + server("gb", "United Kingdom", 51.5, -0.1167, "Netflix") + ", "
+                + server("de", "Germany", 50.1167, 8.6833, "Netflix", "P2P") + "]");
+        Assert.assertEquals(2L, servers.getSize());
+        Assert.assertEquals(0L, servers.categories(0));
+        Assert.assertEquals(ServerCatalog.CATEGORY_P2P, servers.categories(1));
+    }
+
+    /**
+     * Test of toJson method, of class ServerCatalog.
+     */
+    @Test
+    public void testToJson() throws IOException {
+        ServerCatalog servers = new ServerCatalog.Builder().add("se", "Sweden", 59.3333, 18.05,
+                ServerCatalog.CATEGORY_STANDARD | ServerCatalog.CATEGORY_OBFUSCATED).add("ch", "Switzerland", 47.3667, 8.55, 0).build();
+        ServerCatalog parsed = parse(servers.toJson(""));
+        Assert.assertEquals(servers.getSize(), parsed.getSize());
+        for (int i = 0; i < servers.getSize(); i++) {
+            Assert.assertEquals(servers.flag(i), parsed.flag(i));
+            Assert.assertEquals(servers.country(i), parsed.country(i));
+            Assert.assertEquals(servers.latitude(i), parsed.latitude(i), 0.0);
+            Assert.assertEquals(servers.longitude(i), parsed.longitude(i), 0.0);
+            Assert.assertEquals(servers.categories(i), parsed.categories(i));
+        }
+    }
+
+    private static ServerCatalog parse(String json) throws IOException {
+        return ServerCatalog.Companion.parse(new Buffer().writeUtf8(json));
+    }
+
+    private static String server(String flag, String country, double latitude, double longitude, String... categories) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"flag\": \"").append(flag).append("\", \"country\": \"").append(country).append("\", \"location\": {\"lat\": ")
+                .append(latitude).append(", \"long\": ").append(longitude).append("}, \"categories\": [");
+        for (int i = 0; i < categories.length; i++) {
+            json.append((i == 0) ? "" : ", ").append("{\"name\": \"").append(categories[i]).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+}
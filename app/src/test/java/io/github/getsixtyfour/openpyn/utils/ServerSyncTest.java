@@ -0,0 +1,136 @@
+package io.github.getsixtyfour.openpyn.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 1951FDG
+ */
+
+@SuppressWarnings({ "JUnitTestNG", "MessageMissingOnJUnitAssertion" })
+public class ServerSyncTest {
+
+    private static final String ETAG = "\"recorded\"";
+
+    private static byte[] payload = null;
+
+    private final AtomicBoolean mConditional = new AtomicBoolean(true);
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    private HttpServer mServer = null;
+
+    private File mFile = null;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        try (InputStream in = ServerSyncTest.class.getClassLoader().getResourceAsStream("servers.json")) {
+            Assert.assertNotNull(in);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            payload = out.toByteArray();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/server", this::handle);
+        mServer.start();
+        File dir = Files.createTempDirectory("sync").toFile();
+        dir.deleteOnExit();
+        mFile = new File(dir, "nordvpn.json");
+        mFile.deleteOnExit();
+        new File(mFile.getPath() + ".sync").deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    /**
+     * Test of sync method without a stored list, of class ServerSync.
+     */
+    @Test
+    public void testSync() throws IOException {
+        ServerSync.Result result = sync();
+        Assert.assertTrue(result.isModified());
+        Assert.assertTrue(result.isChanged());
+        // The two servers in Albania are at the same location
+        Assert.assertEquals(3, result.getAdded());
+        Assert.assertEquals(0, result.getRemoved());
+        Assert.assertEquals(0, result.getChanged());
+        String json = new String(Files.readAllBytes(mFile.toPath()), "UTF-8");
+        Assert.assertTrue(json.contains("\"flag\":\"al\""));
+        Assert.assertTrue(json.contains("Obfuscated Servers"));
+        Assert.assertFalse(json.contains("ip_address"));
+    }
+
+    /**
+     * Test of sync method with the validators of the last response, of class ServerSync.
+     */
+    @Test
+    public void testSyncNotModified() throws IOException {
+        sync();
+        long length = mFile.length();
+        ServerSync.Result result = sync();
+        Assert.assertFalse(result.isModified());
+        Assert.assertFalse(result.isChanged());
+        Assert.assertEquals(2, mRequests.get());
+        Assert.assertEquals(length, mFile.length());
+    }
+
+    /**
+     * Test of sync method with a server that ignores the validators, of class ServerSync.
+     */
+    @Test
+    public void testSyncUnchanged() throws IOException {
+        sync();
+        mConditional.set(false);
+        Assert.assertTrue(mFile.setLastModified(0L));
+        ServerSync.Result result = sync();
+        Assert.assertTrue(result.isModified());
+        Assert.assertFalse(result.isChanged());
+        Assert.assertEquals(0L, mFile.lastModified());
+    }
+
+    private ServerSync.Result sync() throws IOException {
+        URL url = new URL("http", "127.0.0.1", mServer.getAddress().getPort(), "/server");
+        return new ServerSync(url, mFile, "").sync();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        if (mConditional.get() && ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1L);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, payload.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload);
+        }
+    }
+}